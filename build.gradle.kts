@@ -1,6 +1,7 @@
 plugins {
     java
     alias(libs.plugins.defaults)
+    alias(libs.plugins.jmh)
     alias(libs.plugins.license)
 }
 
@@ -31,6 +32,10 @@ tasks {
         sourceCompatibility = JavaVersion.VERSION_21.toString()
         targetCompatibility = JavaVersion.VERSION_21.toString()
     }
+    named<JavaCompile>("compileLoadTestJava") {
+        sourceCompatibility = JavaVersion.VERSION_21.toString()
+        targetCompatibility = JavaVersion.VERSION_21.toString()
+    }
 }
 
 @Suppress("UnstableApiUsage")
@@ -51,9 +56,38 @@ testing {
                 implementation(libs.testcontainers.junitJupiter)
             }
         }
+        register<JvmTestSuite>("loadTest") {
+            dependencies {
+                implementation(project())
+                compileOnly(libs.jetbrains.annotations)
+                implementation(libs.assertj)
+                implementation(libs.hivemq.mqttClient)
+                implementation(libs.mockserverNeoLight.client)
+                implementation(libs.mockserverNeoLight.testcontainers)
+                implementation(libs.shrinkwrap.api)
+                runtimeOnly(libs.shrinkwrap.impl)
+                implementation(libs.testcontainers.hivemq)
+                implementation(libs.testcontainers.junitJupiter)
+            }
+            targets.configureEach {
+                testTask.configure {
+                    for (name in listOf("clients", "users", "concurrency", "latencyMillis", "errorPercent")) {
+                        providers.gradleProperty("loadTest.$name").orNull?.let { systemProperty("loadTest.$name", it) }
+                    }
+                    testLogging.showStandardStreams = true
+                    outputs.upToDateWhen { false }
+                }
+            }
+        }
     }
 }
 
+jmh {
+    jmhVersion = libs.versions.jmh
+    threads = 4
+    profilers = listOf("gc")
+}
+
 tasks.withType<Jar>().configureEach {
     manifest.attributes(
         "Implementation-Title" to project.name,
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorProcessInput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorProcessOutput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CustomSettings;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ExternalRolesCommonPreprocessor#process} including the lookup and the merge of the roles, for
+ * different numbers of external roles per user.
+ * <p>
+ * The roles are read from a local roles file (custom setting {@code rolesSource} set to {@code file}), so the
+ * benchmark measures the per-connection path of the preprocessor without network latency.
+ *
+ * @since 4.36.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExternalRolesCommonPreprocessorBenchmark {
+
+    private static final int USERS = 4096;
+
+    @Param({"1", "10", "100"})
+    public int rolesPerUser;
+
+    private final @NotNull ExternalRolesCommonPreprocessor preprocessor = new ExternalRolesCommonPreprocessor();
+    private @NotNull CommonPreprocessorProcessInput @NotNull [] inputs = new CommonPreprocessorProcessInput[0];
+    private final @NotNull CommonPreprocessorProcessOutput output = Stubs.commonProcessOutput();
+    private @NotNull Path rolesFile = Path.of("");
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final Random random = new Random(42);
+        rolesFile = Files.createTempFile("external-roles-benchmark", ".txt");
+        try (final BufferedWriter writer = Files.newBufferedWriter(rolesFile, StandardCharsets.UTF_8)) {
+            for (int user = 0; user < USERS; user++) {
+                writer.write("user-" + user + "=");
+                for (int role = 0; role < rolesPerUser; role++) {
+                    if (role > 0) {
+                        writer.write(',');
+                    }
+                    writer.write("role-" + random.nextInt(1000));
+                }
+                writer.newLine();
+            }
+        }
+
+        final CustomSettings customSettings = Stubs.customSettings(Map.of("rolesSource",
+                List.of("file"),
+                "rolesFile",
+                List.of(rolesFile.toString())));
+        preprocessor.init(Stubs.commonInitInput(customSettings, new MetricRegistry()));
+
+        inputs = new CommonPreprocessorProcessInput[USERS];
+        for (int user = 0; user < USERS; user++) {
+            inputs[user] = Stubs.commonProcessInput("user-" + user, List.of("internal-role-1", "internal-role-2"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        preprocessor.shutdown(Stubs.commonShutdownInput());
+        Files.deleteIfExists(rolesFile);
+    }
+
+    @Benchmark
+    public void process(final @NotNull UserIndex userIndex) {
+        preprocessor.process(inputs[userIndex.next()], output);
+    }
+
+    /**
+     * Cycles through the connecting users, separately for each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class UserIndex {
+
+        private int next = new Random().nextInt(USERS);
+
+        int next() {
+            next = (next + 1) & (USERS - 1);
+            return next;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CustomSettings;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.MqttPreprocessorProcessInput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.MqttPreprocessorProcessOutput;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link IpAllowlistMqttPreprocessor#process} for allowlists of different sizes and IPv4/IPv6 mixes. Half of
+ * the connecting client IPs are part of the allowlist.
+ *
+ * @since 4.36.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IpAllowlistMqttPreprocessorBenchmark {
+
+    private static final int CLIENTS = 4096;
+
+    @Param({"100", "10000", "100000"})
+    public int allowlistSize;
+
+    @Param({"0", "50", "100"})
+    public int ipv6Percent;
+
+    private final @NotNull IpAllowlistMqttPreprocessor preprocessor = new IpAllowlistMqttPreprocessor();
+    private @NotNull MqttPreprocessorProcessInput @NotNull [] inputs = new MqttPreprocessorProcessInput[0];
+    private final @NotNull MqttPreprocessorProcessOutput output = Stubs.mqttProcessOutput();
+
+    @Setup(Level.Trial)
+    public void setup() throws UnknownHostException {
+        final Random random = new Random(42);
+        final List<byte[]> prefixes = new ArrayList<>();
+        final List<String> ipAllowlist = new ArrayList<>();
+        for (int i = 0; i < allowlistSize; i++) {
+            final boolean ipv6 = random.nextInt(100) < ipv6Percent;
+            final byte[] prefix = new byte[ipv6 ? 16 : 4];
+            random.nextBytes(prefix);
+            // /24 networks for IPv4 and /48 networks for IPv6
+            final int prefixLength = ipv6 ? 48 : 24;
+            prefixes.add(prefix);
+            ipAllowlist.add(InetAddress.getByAddress(prefix).getHostAddress() + "/" + prefixLength);
+        }
+
+        final CustomSettings customSettings = Stubs.customSettings(Map.of("ipAllowlist", ipAllowlist));
+        preprocessor.init(Stubs.mqttInitInput(customSettings, new MetricRegistry()));
+
+        inputs = new MqttPreprocessorProcessInput[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            final byte[] address;
+            if (i % 2 == 0 && !prefixes.isEmpty()) {
+                address = prefixes.get(random.nextInt(prefixes.size())).clone();
+                address[address.length - 1] = (byte) random.nextInt();
+            } else {
+                address = new byte[random.nextInt(100) < ipv6Percent ? 16 : 4];
+                random.nextBytes(address);
+            }
+            inputs[i] = Stubs.mqttProcessInput(InetAddress.getByAddress(address));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        preprocessor.shutdown(Stubs.mqttShutdownInput());
+    }
+
+    @Benchmark
+    public void process(final @NotNull ClientIndex clientIndex) {
+        preprocessor.process(inputs[clientIndex.next()], output);
+    }
+
+    /**
+     * Cycles through the connecting clients, separately for each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ClientIndex {
+
+        private int next = new Random().nextInt(CLIENTS);
+
+        int next() {
+            next = (next + 1) & (CLIENTS - 1);
+            return next;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of roles response bodies by the {@link RolesBodySubscriber} for different body sizes. The body
+ * is delivered in chunks of 4 KiB like the HTTP client does.
+ *
+ * @since 4.36.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RolesBodySubscriberBenchmark {
+
+    private static final int CHUNK_BYTES = 4096;
+    private static final int BATCH_USERS = 100;
+    private static final @NotNull Flow.Subscription SUBSCRIPTION = new Flow.Subscription() {
+        @Override
+        public void request(final long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    @Param({"1", "10", "100"})
+    public int rolesPerUser;
+
+    private final @NotNull RoleNamePool roleNamePool = new RoleNamePool(65_536);
+    private final @NotNull Histogram responseSizes =
+            PreprocessorMetrics.histogram(new MetricRegistry(), "roles.response.size");
+    private @NotNull List<ByteBuffer> rolesBody = List.of();
+    private @NotNull List<ByteBuffer> rolesByUserBody = List.of();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Random random = new Random(42);
+        final StringBuilder roles = new StringBuilder();
+        final StringBuilder rolesByUser = new StringBuilder();
+        for (int user = 0; user < BATCH_USERS; user++) {
+            rolesByUser.append("user-").append(user).append('=');
+            for (int role = 0; role < rolesPerUser; role++) {
+                final String roleName = "role-" + random.nextInt(1000);
+                if (role > 0) {
+                    rolesByUser.append(',');
+                }
+                rolesByUser.append(roleName);
+                if (user == 0) {
+                    if (role > 0) {
+                        roles.append(", ");
+                    }
+                    roles.append(roleName);
+                }
+            }
+            rolesByUser.append('\n');
+        }
+        rolesBody = chunks(roles.toString().getBytes(StandardCharsets.UTF_8));
+        rolesByUserBody = chunks(rolesByUser.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public @NotNull List<String> roles() {
+        return parse(RolesBodySubscriber.roles(roleNamePool, Long.MAX_VALUE, responseSizes), rolesBody);
+    }
+
+    @Benchmark
+    public @NotNull Map<String, List<String>> rolesByUser() {
+        return parse(RolesBodySubscriber.rolesByUser(roleNamePool, Long.MAX_VALUE, responseSizes), rolesByUserBody);
+    }
+
+    private static <T> @NotNull T parse(
+            final @NotNull HttpResponse.BodySubscriber<T> subscriber,
+            final @NotNull List<ByteBuffer> body) {
+        subscriber.onSubscribe(SUBSCRIPTION);
+        for (final ByteBuffer chunk : body) {
+            subscriber.onNext(List.of(chunk.duplicate()));
+        }
+        subscriber.onComplete();
+        return subscriber.getBody().toCompletableFuture().join();
+    }
+
+    private static @NotNull List<ByteBuffer> chunks(final byte @NotNull [] body) {
+        final ByteBuffer[] chunks = new ByteBuffer[(body.length + CHUNK_BYTES - 1) / CHUNK_BYTES];
+        for (int i = 0; i < chunks.length; i++) {
+            final int from = i * CHUNK_BYTES;
+            chunks[i] = ByteBuffer.wrap(body, from, Math.min(CHUNK_BYTES, body.length - from)).slice();
+        }
+        return List.of(chunks);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.async.Async;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorInitInput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorProcessInput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorProcessOutput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorShutdownInput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.ConnectionInformation;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CustomSettings;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.EseVariablesInput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.EseVariablesOutput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.MqttPreprocessorInitInput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.MqttPreprocessorProcessInput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.MqttPreprocessorProcessOutput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.MqttPreprocessorShutdownInput;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Stub implementations of the customization SDK interfaces for the benchmarks.
+ * <p>
+ * The stubs are plain classes that return values prepared at construction, so calling them costs no more than the
+ * field access and does not allocate. The outputs ignore all values that are set.
+ *
+ * @since 4.36.0
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * @param settings the values of the custom settings by name.
+     */
+    static @NotNull CustomSettings customSettings(final @NotNull Map<String, List<String>> settings) {
+        return new CustomSettingsStub(settings);
+    }
+
+    static @NotNull CommonPreprocessorInitInput commonInitInput(
+            final @NotNull CustomSettings customSettings,
+            final @NotNull MetricRegistry metricRegistry) {
+        return new InitInputStub(customSettings, metricRegistry);
+    }
+
+    static @NotNull CommonPreprocessorProcessInput commonProcessInput(
+            final @NotNull String authorizationKey,
+            final @NotNull List<String> authorizationRoleKey) {
+        return new CommonProcessInputStub(new EseVariablesInputStub(authorizationKey, authorizationRoleKey));
+    }
+
+    static @NotNull CommonPreprocessorProcessOutput commonProcessOutput() {
+        return new CommonProcessOutputStub();
+    }
+
+    static @NotNull CommonPreprocessorShutdownInput commonShutdownInput() {
+        return new ShutdownInputStub();
+    }
+
+    static @NotNull MqttPreprocessorInitInput mqttInitInput(
+            final @NotNull CustomSettings customSettings,
+            final @NotNull MetricRegistry metricRegistry) {
+        return new InitInputStub(customSettings, metricRegistry);
+    }
+
+    static @NotNull MqttPreprocessorProcessInput mqttProcessInput(final @NotNull InetAddress inetAddress) {
+        return new MqttProcessInputStub(new EseVariablesInputStub(null, null),
+                new ConnectionInformationStub(inetAddress));
+    }
+
+    static @NotNull MqttPreprocessorProcessOutput mqttProcessOutput() {
+        return new MqttProcessOutputStub();
+    }
+
+    static @NotNull MqttPreprocessorShutdownInput mqttShutdownInput() {
+        return new ShutdownInputStub();
+    }
+
+    private static final class CustomSettingsStub implements CustomSettings {
+
+        private final @NotNull Map<String, List<String>> settings;
+
+        private CustomSettingsStub(final @NotNull Map<String, List<String>> settings) {
+            this.settings = settings;
+        }
+
+        @Override
+        public @NotNull Optional<String> getFirst(final @NotNull String name) {
+            final List<String> values = getAllForName(name);
+            return values.isEmpty() ? Optional.empty() : Optional.of(values.get(0));
+        }
+
+        @Override
+        public @NotNull List<String> getAllForName(final @NotNull String name) {
+            return settings.getOrDefault(name, List.of());
+        }
+    }
+
+    private static final class InitInputStub implements CommonPreprocessorInitInput, MqttPreprocessorInitInput {
+
+        private final @NotNull CustomSettings customSettings;
+        private final @NotNull MetricRegistry metricRegistry;
+
+        private InitInputStub(
+                final @NotNull CustomSettings customSettings,
+                final @NotNull MetricRegistry metricRegistry) {
+            this.customSettings = customSettings;
+            this.metricRegistry = metricRegistry;
+        }
+
+        @Override
+        public @NotNull CustomSettings getCustomSettings() {
+            return customSettings;
+        }
+
+        @Override
+        public @NotNull MetricRegistry getMetricRegistry() {
+            return metricRegistry;
+        }
+    }
+
+    private static final class CommonProcessInputStub implements CommonPreprocessorProcessInput {
+
+        private final @NotNull EseVariablesInput eseVariablesInput;
+
+        private CommonProcessInputStub(final @NotNull EseVariablesInput eseVariablesInput) {
+            this.eseVariablesInput = eseVariablesInput;
+        }
+
+        @Override
+        public @NotNull EseVariablesInput getEseVariablesInput() {
+            return eseVariablesInput;
+        }
+    }
+
+    private static final class MqttProcessInputStub implements MqttPreprocessorProcessInput {
+
+        private final @NotNull EseVariablesInput eseVariablesInput;
+        private final @NotNull ConnectionInformation connectionInformation;
+
+        private MqttProcessInputStub(
+                final @NotNull EseVariablesInput eseVariablesInput,
+                final @NotNull ConnectionInformation connectionInformation) {
+            this.eseVariablesInput = eseVariablesInput;
+            this.connectionInformation = connectionInformation;
+        }
+
+        @Override
+        public @NotNull EseVariablesInput getEseVariablesInput() {
+            return eseVariablesInput;
+        }
+
+        @Override
+        public @NotNull ConnectionInformation getConnectionInformation() {
+            return connectionInformation;
+        }
+    }
+
+    private static final class EseVariablesInputStub implements EseVariablesInput {
+
+        private final @NotNull Optional<String> authorizationKey;
+        private final @NotNull Optional<List<String>> authorizationRoleKey;
+
+        private EseVariablesInputStub(
+                final @Nullable String authorizationKey,
+                final @Nullable List<String> authorizationRoleKey) {
+            this.authorizationKey = Optional.ofNullable(authorizationKey);
+            this.authorizationRoleKey = Optional.ofNullable(authorizationRoleKey);
+        }
+
+        @Override
+        public @NotNull Optional<String> getAuthorizationKey() {
+            return authorizationKey;
+        }
+
+        @Override
+        public @NotNull Optional<List<String>> getAuthorizationRoleKey() {
+            return authorizationRoleKey;
+        }
+
+        @Override
+        public @NotNull Optional<String> getAuthenticationKey() {
+            return Optional.empty();
+        }
+    }
+
+    private static final class ConnectionInformationStub implements ConnectionInformation {
+
+        private final @NotNull Optional<InetAddress> inetAddress;
+
+        private ConnectionInformationStub(final @NotNull InetAddress inetAddress) {
+            this.inetAddress = Optional.of(inetAddress);
+        }
+
+        @Override
+        public @NotNull Optional<InetAddress> getInetAddress() {
+            return inetAddress;
+        }
+    }
+
+    private static final class EseVariablesOutputStub implements EseVariablesOutput {
+
+        @Override
+        public void setAuthorizationRoleKey(final @Nullable List<String> authorizationRoleKey) {
+        }
+
+        @Override
+        public void setAuthorizationKey(final @Nullable String authorizationKey) {
+        }
+
+        @Override
+        public void setAuthenticationKey(final @Nullable String authenticationKey) {
+        }
+
+        @Override
+        public void setAuthenticationByteSecret(final byte @Nullable [] authenticationByteSecret) {
+        }
+    }
+
+    private static final class CommonProcessOutputStub implements CommonPreprocessorProcessOutput {
+
+        private final @NotNull EseVariablesOutput eseVariablesOutput = new EseVariablesOutputStub();
+        private final @NotNull Async<CommonPreprocessorProcessOutput> async = new AsyncStub<>(this);
+
+        @Override
+        public @NotNull EseVariablesOutput getEseVariablesOutput() {
+            return eseVariablesOutput;
+        }
+
+        @Override
+        public @NotNull Async<CommonPreprocessorProcessOutput> async() {
+            return async;
+        }
+    }
+
+    private static final class MqttProcessOutputStub implements MqttPreprocessorProcessOutput {
+
+        private final @NotNull EseVariablesOutput eseVariablesOutput = new EseVariablesOutputStub();
+
+        @Override
+        public @NotNull EseVariablesOutput getEseVariablesOutput() {
+            return eseVariablesOutput;
+        }
+    }
+
+    /**
+     * Shared by all benchmark threads, so {@link #resume()} does not track a status.
+     */
+    private static final class AsyncStub<T> implements Async<T> {
+
+        private final @NotNull T output;
+
+        private AsyncStub(final @NotNull T output) {
+            this.output = output;
+        }
+
+        @Override
+        public void resume() {
+        }
+
+        @Override
+        public @NotNull T getOutput() {
+            return output;
+        }
+
+        @Override
+        public @NotNull Status getStatus() {
+            return Status.RUNNING;
+        }
+    }
+
+    private static final class ShutdownInputStub
+            implements CommonPreprocessorShutdownInput, MqttPreprocessorShutdownInput {
+    }
+}
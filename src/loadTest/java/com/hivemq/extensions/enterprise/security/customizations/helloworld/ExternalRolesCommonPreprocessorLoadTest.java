@@ -0,0 +1,252 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import org.assertj.core.api.Assertions;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.slf4j.event.Level;
+import org.testcontainers.containers.Network;
+import org.testcontainers.hivemq.HiveMQContainer;
+import org.testcontainers.images.builder.Transferable;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import org.testcontainers.utility.MountableFile;
+import software.xdev.mockserver.client.MockServerClient;
+import software.xdev.testcontainers.mockserver.containers.MockServerContainer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static software.xdev.mockserver.model.HttpRequest.request;
+import static software.xdev.mockserver.model.HttpResponse.response;
+
+/**
+ * Connect storm against the {@link ExternalRolesCommonPreprocessor} with a roles endpoint that has a configurable
+ * latency and error rate.
+ * <p>
+ * The load is configured with the following system properties, which can be passed as Gradle properties, e.g.
+ * {@code ./gradlew loadTest -PloadTest.clients=10000 -PloadTest.latencyMillis=200}:
+ * <ul>
+ *     <li>{@code loadTest.clients}: the number of CONNECTs (default 5000).</li>
+ *     <li>{@code loadTest.users}: the number of distinct users the CONNECTs are spread over (default 1000).</li>
+ *     <li>{@code loadTest.concurrency}: the maximum number of CONNECTs in flight (default 500).</li>
+ *     <li>{@code loadTest.latencyMillis}: the response delay of the roles endpoint (default 50).</li>
+ *     <li>{@code loadTest.errorPercent}: the percentage of users for which the roles endpoint fails (default 5).</li>
+ * </ul>
+ * The errors are assigned per user and not per request, so the failing users are the same in every run and the
+ * results of runs are comparable.
+ *
+ * @since 4.36.0
+ */
+@Testcontainers
+class ExternalRolesCommonPreprocessorLoadTest {
+
+    private static final @NotNull String ESE_ID = "hivemq-enterprise-security-extension";
+    private static final @NotNull String ESE_NAME = "HiveMQ Enterprise Security Extension";
+    private static final @NotNull String ESE_HOME_FOLDER = "/opt/hivemq/extensions/" + ESE_ID;
+    private static final @NotNull String PASSWORD = "load-test-password";
+
+    private static final int CLIENTS = Integer.getInteger("loadTest.clients", 5_000);
+    private static final int USERS = Integer.getInteger("loadTest.users", 1_000);
+    private static final int CONCURRENCY = Integer.getInteger("loadTest.concurrency", 500);
+    private static final int LATENCY_MILLIS = Integer.getInteger("loadTest.latencyMillis", 50);
+    private static final int ERROR_PERCENT = Integer.getInteger("loadTest.errorPercent", 5);
+
+    private final @NotNull Network network = Network.newNetwork();
+
+    @Container
+    private final @NotNull MockServerContainer mockServer =
+            new MockServerContainer().withNetworkAliases("mockserver").withNetwork(network);
+
+    @Container
+    private final @NotNull HiveMQContainer hivemq = new HiveMQContainer( //
+            DockerImageName.parse("hivemq/hivemq4").withTag("latest")) //
+            .withLogLevel(Level.INFO)
+            .withNetwork(network)
+            .withNetworkAliases("hivemq")
+            .withEnv("ROLES_ENDPOINT", "http://mockserver:" + MockServerContainer.PORT)
+            .withCopyFileToContainer(MountableFile.forClasspathResource("/external-roles-load-test-config.xml"),
+                    ESE_HOME_FOLDER + "/conf/config.xml")
+            .withCopyToContainer(fileRealm(), ESE_HOME_FOLDER + "/conf/file-realm.xml")
+            .withCopyToContainer(externalRolesCommonPreprocessor(),
+                    ESE_HOME_FOLDER +
+                            "/customizations/" +
+                            ExternalRolesCommonPreprocessor.class.getSimpleName().toLowerCase(Locale.ROOT) +
+                            ".jar")
+            .withoutPrepackagedExtensions("hivemq-allow-all-extension");
+
+    private static @NotNull Transferable externalRolesCommonPreprocessor() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShrinkWrap.create(JavaArchive.class)
+                .addClasses(ExternalRolesCommonPreprocessor.class,
+                        CanonicalTable.class,
+                        CircuitBreaker.class,
+                        FileRolesSource.class,
+                        LatencyTracker.class,
+                        MergedRoleListPool.class,
+                        PreprocessorMetrics.class,
+                        RoleCache.class,
+                        RoleLookupBatcher.class,
+                        RoleNamePool.class,
+                        RoleRequestCoalescer.class,
+                        RoleSnapshot.class,
+                        RolesChangeFeed.class,
+                        RolesBodySubscriber.class,
+                        RolesEndpointClient.class,
+                        RolesEndpointStatusException.class,
+                        RolesPreloader.class,
+                        RolesUnavailableException.class)
+                .as(ZipExporter.class)
+                .exportTo(out);
+        return Transferable.of(out.toByteArray());
+    }
+
+    /**
+     * @return a file realm with {@link #USERS} users that all have the same password and internal role.
+     */
+    private static @NotNull Transferable fileRealm() {
+        final StringBuilder realm = new StringBuilder();
+        realm.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n")
+                .append("<ese-file-realm version=\"1\">\n")
+                .append("    <mqtt>\n")
+                .append("        <users>\n");
+        for (int i = 0; i < USERS; i++) {
+            realm.append("            <user>\n")
+                    .append("                <name>").append(user(i)).append("</name>\n")
+                    .append("                <password>").append(PASSWORD).append("</password>\n")
+                    .append("                <roles><role>internal-role</role></roles>\n")
+                    .append("            </user>\n");
+        }
+        realm.append("        </users>\n")
+                .append("        <roles>\n")
+                .append(role("internal-role"))
+                .append(role("external-role"))
+                .append("        </roles>\n")
+                .append("    </mqtt>\n")
+                .append("</ese-file-realm>\n");
+        return Transferable.of(realm.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static @NotNull String role(final @NotNull String id) {
+        return "            <role>\n" +
+                "                <id>" + id + "</id>\n" +
+                "                <permissions>\n" +
+                "                    <permission>\n" +
+                "                        <topic>" + id + "</topic>\n" +
+                "                    </permission>\n" +
+                "                </permissions>\n" +
+                "            </role>\n";
+    }
+
+    /**
+     * @return the name of the user, users with the prefix {@code failing-} get an error from the roles endpoint.
+     */
+    private static @NotNull String user(final int index) {
+        return (index % 100 < ERROR_PERCENT ? "failing-user-" : "user-") + index;
+    }
+
+    @Test
+    void connectStorm() throws Exception {
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            // expectations are matched in the order they are created, so the failing users are matched first
+            mockServerClient.when(request("/").withQueryStringParameter("user", "failing-user-.*").withMethod("GET"))
+                    .respond(response().withStatusCode(500).withDelay(TimeUnit.MILLISECONDS, LATENCY_MILLIS));
+            mockServerClient.when(request("/").withMethod("GET"))
+                    .respond(response().withBody("external-role").withDelay(TimeUnit.MILLISECONDS, LATENCY_MILLIS));
+
+            final long[] latencies = new long[CLIENTS];
+            final AtomicInteger failures = new AtomicInteger();
+            final Semaphore inFlight = new Semaphore(CONCURRENCY);
+            final List<CompletableFuture<?>> connects = new ArrayList<>(CLIENTS);
+            final long startNanos = System.nanoTime();
+            for (int i = 0; i < CLIENTS; i++) {
+                final int index = i;
+                final Mqtt5AsyncClient client = MqttClient.builder()
+                        .useMqttVersion5()
+                        .identifier("load-test-" + index)
+                        .serverHost(hivemq.getHost())
+                        .serverPort(hivemq.getMqttPort())
+                        .simpleAuth()
+                        .username(user(index % USERS))
+                        .password(PASSWORD.getBytes(StandardCharsets.UTF_8))
+                        .applySimpleAuth()
+                        .buildAsync();
+                inFlight.acquire();
+                final long connectNanos = System.nanoTime();
+                connects.add(client.connect().handle((connAck, throwable) -> {
+                    latencies[index] = System.nanoTime() - connectNanos;
+                    inFlight.release();
+                    if (throwable != null) {
+                        failures.incrementAndGet();
+                        return null;
+                    }
+                    return client.disconnect();
+                }).thenCompose(disconnect -> disconnect == null ? CompletableFuture.completedFuture(null) :
+                        disconnect.exceptionally(ignored -> null)));
+            }
+            CompletableFuture.allOf(connects.toArray(CompletableFuture[]::new)).get(10, TimeUnit.MINUTES);
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            final int roleRequests = mockServerClient.retrieveRecordedRequests(request("/")).length;
+
+            Arrays.sort(latencies);
+            System.out.printf(Locale.ROOT,
+                    "LOAD TEST: %d CONNECTs of %d users, concurrency %d, roles latency %d ms, roles errors %d%%%n",
+                    CLIENTS,
+                    USERS,
+                    CONCURRENCY,
+                    LATENCY_MILLIS,
+                    ERROR_PERCENT);
+            System.out.printf(Locale.ROOT,
+                    "LOAD TEST: connect latency p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                    percentileMillis(latencies, 0.50),
+                    percentileMillis(latencies, 0.95),
+                    percentileMillis(latencies, 0.99),
+                    percentileMillis(latencies, 1));
+            System.out.printf(Locale.ROOT,
+                    "LOAD TEST: throughput %.1f CONNECTs/s, %d failed CONNECTs, %d outbound role requests%n",
+                    CLIENTS / (elapsedNanos / 1e9),
+                    failures.get(),
+                    roleRequests);
+
+            // roles endpoint errors must not fail the CONNECT, the clients continue with their internal roles
+            Assertions.assertThat(failures).hasValue(0);
+            Assertions.assertThat(roleRequests).isGreaterThan(0);
+        }
+    }
+
+    private static double percentileMillis(final long @NotNull [] sortedNanos, final double percentile) {
+        final int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(index, 0)] / 1e6;
+    }
+}
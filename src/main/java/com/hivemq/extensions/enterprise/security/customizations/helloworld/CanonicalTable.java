@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+/**
+ * A bounded, insert-only hash table of canonical entries, which backs {@link RoleNamePool} and
+ * {@link MergedRoleListPool}.
+ * <p>
+ * The entries are held in an open-addressing table with linear probing, which is doubled when it is half full. Lookups
+ * are lock-free, as a resized table is published with a single volatile write, and only adding an entry is
+ * synchronized. The key of an entry is passed as up to two objects and an index range (e.g. a byte array and the range
+ * of a name in it), so a lookup does not have to allocate a key. The entries are never evicted, so once
+ * {@code maxEntries} entries are stored, further entries are not added. This is logged once as a warning.
+ *
+ * @param <A> the type of the first part of the keys.
+ * @param <B> the type of the second part of the keys.
+ * @param <E> the type of the entries.
+ * @since 4.36.0
+ */
+final class CanonicalTable<A, B, E extends CanonicalTable.Entry<A, B>> {
+
+    private final int maxEntries;
+    private final @NotNull Logger logger;
+    private final @NotNull String fullMessage;
+    private volatile @Nullable Entry<?, ?> @NotNull [] table = new Entry<?, ?>[64];
+    private int size;
+    private boolean fullLogged;
+
+    /**
+     * @param logger      the logger of the pool that uses the table.
+     * @param fullMessage the warning that is logged when the table is full, with a placeholder for {@code maxEntries}.
+     */
+    CanonicalTable(final int maxEntries, final @NotNull Logger logger, final @NotNull String fullMessage) {
+        this.maxEntries = maxEntries;
+        this.logger = logger;
+        this.fullMessage = fullMessage;
+    }
+
+    /**
+     * @param hash the hash of the key, see {@link Entry#hash}.
+     * @return the entry of the key, or {@code null} if the key is not contained.
+     */
+    @Nullable E find(final int hash, final A a, final B b, final int from, final int to) {
+        return find(table, hash, a, b, from, to);
+    }
+
+    /**
+     * Adds the entry of a key that was not found, unless an entry of the key was added concurrently.
+     *
+     * @param entry the new entry of the key.
+     * @return the contained entry of the key, or the new entry if it was added or the table is full.
+     */
+    synchronized @NotNull E add(final @NotNull E entry, final A a, final B b, final int from, final int to) {
+        final E raced = find(table, entry.hash, a, b, from, to);
+        if (raced != null) {
+            return raced;
+        }
+        if (size >= maxEntries) {
+            if (!fullLogged) {
+                fullLogged = true;
+                logger.warn(fullMessage, maxEntries);
+            }
+            return entry;
+        }
+        if ((size + 1) * 2 > table.length) {
+            table = resize(table);
+        }
+        insert(table, entry);
+        size++;
+        return entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private @Nullable E find(
+            final @Nullable Entry<?, ?> @NotNull [] table,
+            final int hash,
+            final A a,
+            final B b,
+            final int from,
+            final int to) {
+        final int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            final E entry = (E) table[i];
+            if (entry == null) {
+                return null;
+            }
+            if (entry.hash == hash && entry.matches(a, b, from, to)) {
+                return entry;
+            }
+        }
+    }
+
+    private static void insert(final @Nullable Entry<?, ?> @NotNull [] table, final @NotNull Entry<?, ?> entry) {
+        final int mask = table.length - 1;
+        int i = entry.hash & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = entry;
+    }
+
+    private static @Nullable Entry<?, ?> @NotNull [] resize(final @Nullable Entry<?, ?> @NotNull [] table) {
+        final Entry<?, ?>[] resized = new Entry<?, ?>[table.length * 2];
+        for (final Entry<?, ?> entry : table) {
+            if (entry != null) {
+                insert(resized, entry);
+            }
+        }
+        return resized;
+    }
+
+    abstract static class Entry<A, B> {
+
+        /**
+         * The hash of the key of the entry. Its low bits select the slot, so it should be spread, e.g. with
+         * {@code hash ^ (hash >>> 16)}.
+         */
+        final int hash;
+
+        Entry(final int hash) {
+            this.hash = hash;
+        }
+
+        /**
+         * @return {@code true} if the key that is passed as its parts is the key of this entry.
+         */
+        abstract boolean matches(A a, B b, int from, int to);
+    }
+}
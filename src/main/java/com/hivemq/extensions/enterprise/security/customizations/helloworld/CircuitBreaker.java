@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A circuit breaker that opens after a number of consecutive failures.
+ * <p>
+ * While the circuit breaker is open, all calls are rejected. After the open duration has elapsed, a single trial call
+ * is permitted. The circuit breaker closes when the trial call succeeds and opens again when it fails. When the trial
+ * call is cancelled, e.g. because a hedged request to another endpoint completed first, the circuit breaker returns to
+ * open without restarting the open duration, so the next call is permitted as a new trial call.
+ *
+ * @since 4.36.0
+ */
+class CircuitBreaker {
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final @NotNull AtomicInteger state = new AtomicInteger(CLOSED);
+    private final @NotNull AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final @NotNull AtomicLong openedNanos = new AtomicLong();
+
+    CircuitBreaker(final int failureThreshold, final @NotNull Duration openDuration) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failureThreshold must be positive, but was " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * @return {@code true} if the call is permitted, {@code false} if the circuit breaker is open.
+     */
+    boolean tryAcquire() {
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.nanoTime() - openedNanos.get() >= openNanos && state.compareAndSet(OPEN, HALF_OPEN);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return {@code true} if {@link #tryAcquire()} would currently permit a call.
+     */
+    boolean isCallPermitted() {
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.nanoTime() - openedNanos.get() >= openNanos;
+            default:
+                return false;
+        }
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        state.set(CLOSED);
+    }
+
+    /**
+     * Called when a call was cancelled before it completed, so it neither succeeded nor failed.
+     */
+    void onCancelled() {
+        // a cancelled trial call must not leave the circuit breaker half-open, as no other call would be permitted
+        state.compareAndSet(HALF_OPEN, OPEN);
+    }
+
+    void onFailure() {
+        if (state.get() == HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openedNanos.set(System.nanoTime());
+            state.set(OPEN);
+        }
+    }
+}
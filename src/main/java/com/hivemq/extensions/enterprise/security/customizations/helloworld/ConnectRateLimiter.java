@@ -0,0 +1,188 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A token bucket rate limiter per source IP address or address prefix.
+ * <p>
+ * Each bucket holds up to {@code burst} tokens and is refilled with {@code rate} tokens per second. The buckets are
+ * kept in a fixed number of lock-striped open addressing tables that are allocated up front, so the memory stays flat
+ * even when many spoofed source addresses are seen. A bucket that has been refilled completely is the same as no
+ * bucket and its slot is reused. When no slot is free within the probe window of an address, the least recently used
+ * bucket in the window is evicted, so a flood of new addresses can only make the limiter more lenient, never stricter.
+ *
+ * @since 4.36.0
+ */
+class ConnectRateLimiter {
+
+    private static final int MAX_STRIPES = 64;
+    private static final int PROBE_WINDOW = 8;
+    /**
+     * IPv6 addresses with all upper 64 bits set are multicast addresses and never the source of a connection, so this
+     * value marks IPv4 keys.
+     */
+    private static final long IPV4_KEY_HIGH = -1L;
+
+    private final @NotNull Stripe @NotNull [] stripes;
+    private final double tokensPerNano;
+    private final double burst;
+    private final long refillNanos;
+    private final int ipv4PrefixLength;
+    private final int ipv6PrefixLength;
+
+    ConnectRateLimiter(
+            final double rate,
+            final double burst,
+            final int ipv4PrefixLength,
+            final int ipv6PrefixLength,
+            final int maxEntries) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive, but was " + rate);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1, but was " + burst);
+        }
+        if (ipv4PrefixLength < 0 || ipv4PrefixLength > 32) {
+            throw new IllegalArgumentException("IPv4 prefix length must be 0 to 32, but was " + ipv4PrefixLength);
+        }
+        if (ipv6PrefixLength < 0 || ipv6PrefixLength > 128) {
+            throw new IllegalArgumentException("IPv6 prefix length must be 0 to 128, but was " + ipv6PrefixLength);
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive, but was " + maxEntries);
+        }
+        this.tokensPerNano = rate / 1_000_000_000d;
+        this.burst = burst;
+        this.refillNanos = (long) Math.ceil(burst / tokensPerNano);
+        this.ipv4PrefixLength = ipv4PrefixLength;
+        this.ipv6PrefixLength = ipv6PrefixLength;
+        int stripeCount = 1;
+        while (stripeCount < MAX_STRIPES && stripeCount * PROBE_WINDOW * 2 <= maxEntries) {
+            stripeCount *= 2;
+        }
+        int stripeCapacity = PROBE_WINDOW;
+        while (stripeCapacity * stripeCount < maxEntries) {
+            stripeCapacity *= 2;
+        }
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    /**
+     * Takes a token from the bucket of the address.
+     *
+     * @param address the raw IPv4 or IPv6 address bytes.
+     * @return {@code true} if the bucket had a token, {@code false} if the address is over its limit.
+     */
+    boolean tryAcquire(final byte @NotNull [] address, final long nowNanos) {
+        final long high;
+        final long low;
+        if (address.length == 4) {
+            high = IPV4_KEY_HIGH;
+            low = readBits(address, 0, ipv4PrefixLength);
+        } else {
+            high = readBits(address, 0, Math.min(ipv6PrefixLength, 64));
+            low = readBits(address, 8, Math.max(ipv6PrefixLength - 64, 0));
+        }
+        final long mixed = (high * 0x9E3779B97F4A7C15L) ^ (low * 0xC2B2AE3D27D4EB4FL);
+        final int hash = (int) (mixed ^ (mixed >>> 32));
+        final Stripe stripe = stripes[hash & (stripes.length - 1)];
+        synchronized (stripe) {
+            return stripe.tryAcquire(high, low, hash >>> 6, nowNanos);
+        }
+    }
+
+    /**
+     * @return the first {@code bits} bits of the 8 address bytes at the offset, with the other bits set to 0.
+     */
+    private static long readBits(final byte @NotNull [] address, final int offset, final int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        long value = 0;
+        final int length = Math.min(8, address.length - offset);
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (address[offset + i] & 0xFF);
+        }
+        final int totalBits = length * 8;
+        return value & (-1L << (totalBits - bits)) & (totalBits == 64 ? -1L : (1L << totalBits) - 1);
+    }
+
+    private final class Stripe {
+
+        private final long @NotNull [] highs;
+        private final long @NotNull [] lows;
+        private final double @NotNull [] tokens;
+        private final long @NotNull [] updatedNanos;
+        private final boolean @NotNull [] used;
+        private final int mask;
+
+        Stripe(final int capacity) {
+            highs = new long[capacity];
+            lows = new long[capacity];
+            tokens = new double[capacity];
+            updatedNanos = new long[capacity];
+            used = new boolean[capacity];
+            mask = capacity - 1;
+        }
+
+        boolean tryAcquire(final long high, final long low, final int hash, final long nowNanos) {
+            int reusable = -1;
+            int oldest = -1;
+            for (int probe = 0; probe < PROBE_WINDOW; probe++) {
+                final int slot = (hash + probe) & mask;
+                if (!used[slot]) {
+                    if (reusable < 0) {
+                        reusable = slot;
+                    }
+                    continue;
+                }
+                if (highs[slot] == high && lows[slot] == low) {
+                    return take(slot, nowNanos);
+                }
+                if (reusable < 0 && nowNanos - updatedNanos[slot] >= refillNanos) {
+                    // a full bucket does not limit anything, so the slot can be reused
+                    reusable = slot;
+                } else if (oldest < 0 || updatedNanos[slot] - updatedNanos[oldest] < 0) {
+                    oldest = slot;
+                }
+            }
+            final int slot = reusable >= 0 ? reusable : oldest;
+            used[slot] = true;
+            highs[slot] = high;
+            lows[slot] = low;
+            tokens[slot] = burst - 1;
+            updatedNanos[slot] = nowNanos;
+            return true;
+        }
+
+        private boolean take(final int slot, final long nowNanos) {
+            final double refilled =
+                    Math.min(burst, tokens[slot] + (nowNanos - updatedNanos[slot]) * tokensPerNano);
+            updatedNanos[slot] = nowNanos;
+            if (refilled < 1) {
+                tokens[slot] = refilled;
+                return false;
+            }
+            tokens[slot] = refilled - 1;
+            return true;
+        }
+    }
+}
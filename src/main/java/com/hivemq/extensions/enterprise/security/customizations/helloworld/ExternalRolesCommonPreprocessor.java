@@ -15,24 +15,33 @@
  */
 package com.hivemq.extensions.enterprise.security.customizations.helloworld;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.hivemq.extension.sdk.api.async.Async;
 import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessor;
 import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorInitInput;
 import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorProcessInput;
 import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorProcessOutput;
 import com.hivemq.extensions.enterprise.security.api.preprocessor.CommonPreprocessorShutdownInput;
+import com.hivemq.extensions.enterprise.security.api.preprocessor.CustomSettings;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.nio.file.Path;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
 
@@ -44,12 +53,17 @@ import static java.util.Objects.requireNonNull;
  * <ol>
  *     <li>Calls {@code output.async()} to signal asynchronous processing.</li>
  *     <li>Reads the ESE variable {@code authorization-key} from the input.</li>
- *     <li>Sends a request to the configured endpoint with the {@code authorization-key} value as query parameter.</li>
+ *     <li>Looks up the external roles for the {@code authorization-key} value in the role cache (if enabled).</li>
+ *     <li>Otherwise sends a request to the configured endpoint with the {@code authorization-key} value as query
+ *     parameter. Concurrent lookups for the same {@code authorization-key} share a single request.</li>
  *     <li>Reads the ESE variable {@code authorization-role-key} from the ESE variables input.</li>
- *     <li>Merges the roles from the ESE variable {@code authorization-role-key} and the roles retrieved from the endpoint to a new list.</li>
+ *     <li>Merges the roles from the ESE variable {@code authorization-role-key} and the roles retrieved from the endpoint to a shared immutable list.</li>
  *     <li>Writes the merged roles back to the ESE variable {@code authorization-role-key} on the output.</li>
  *     <li>Calls {@code async.resume()} to signal the completion of the asynchronous processing.</li>
  * </ol>
+ * The custom settings for the role cache, batching, several endpoints, resilience and a local roles file are
+ * described in {@code README.adoc}.
+ * <p>
  * An example {@code external-roles-config.xml} file that enables this preprocessor is provided in {@code src/test/resources}.
  *
  * @author Mario Schwede
@@ -58,17 +72,251 @@ import static java.util.Objects.requireNonNull;
 public class ExternalRolesCommonPreprocessor implements CommonPreprocessor {
 
     private static final @NotNull Logger LOGGER = LoggerFactory.getLogger(ExternalRolesCommonPreprocessor.class);
+    private static final @NotNull Duration DEFAULT_CACHE_TTL = Duration.ofSeconds(60);
+    private static final @NotNull Duration DEFAULT_CACHE_REFRESH_AHEAD = Duration.ofSeconds(10);
+    private static final @NotNull Duration DEFAULT_CACHE_STALE_RETRY_INTERVAL = Duration.ofSeconds(1);
+    private static final @NotNull Duration DEFAULT_BATCH_WINDOW = Duration.ofNanos(500_000);
+    private static final @NotNull Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final @NotNull Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(5);
+    private static final @NotNull Duration DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = Duration.ofSeconds(10);
+    private static final @NotNull Duration DEFAULT_HEDGE_MIN_DELAY = Duration.ofMillis(10);
+    private static final long DEFAULT_MAX_RESPONSE_BYTES = 64 * 1024;
+    private static final int DEFAULT_MAX_ROLE_NAMES = 65_536;
+    private static final int DEFAULT_MAX_MERGED_ROLE_LISTS = 16_384;
+    private static final @NotNull Duration DEFAULT_SNAPSHOT_MAX_AGE = Duration.ofHours(1);
+    private static final @NotNull Duration DEFAULT_CHANGE_FEED_MAX_BACKOFF = Duration.ofSeconds(60);
+    private static final @NotNull Duration DEFAULT_FILE_RELOAD_INTERVAL = Duration.ofSeconds(10);
 
-    private final @NotNull HttpClient httpClient = HttpClient.newHttpClient();
-
-    private @Nullable URI rolesEndpoint;
+    private @Nullable Timer processTimer;
+    private @Nullable MergedRoleListPool mergedRoleListPool;
+    private @Nullable RolesEndpointClient rolesEndpointClient;
+    private @Nullable Function<String, CompletableFuture<List<String>>> rolesLookup;
+    private @Nullable RoleLookupBatcher batcher;
+    private @Nullable RoleCache roleCache;
+    private @Nullable Path snapshotFile;
+    private @Nullable RolesChangeFeed changeFeed;
+    private @Nullable RolesPreloader preloader;
+    private @Nullable FileRolesSource fileRolesSource;
+    private boolean denyWhenUnavailable;
 
     @Override
     public void init(final @NotNull CommonPreprocessorInitInput input) {
         LOGGER.debug("INIT");
 
-        rolesEndpoint = input.getCustomSettings().getFirst("rolesEndpoint").map(URI::create).orElseThrow();
-        LOGGER.debug("ENDPOINT: {}", rolesEndpoint);
+        final CustomSettings customSettings = input.getCustomSettings();
+        final MetricRegistry metricRegistry = input.getMetricRegistry();
+        processTimer = PreprocessorMetrics.timer(metricRegistry,
+                MetricRegistry.name(ExternalRolesCommonPreprocessor.class, "process", "time"));
+        final int maxRoleNames =
+                customSettings.getFirst("rolesMaxRoleNames").map(Integer::parseInt).orElse(DEFAULT_MAX_ROLE_NAMES);
+        final RoleNamePool roleNamePool = new RoleNamePool(maxRoleNames);
+        final int maxMergedRoleLists = customSettings.getFirst("rolesMaxMergedRoleLists")
+                .map(Integer::parseInt)
+                .orElse(DEFAULT_MAX_MERGED_ROLE_LISTS);
+        mergedRoleListPool = new MergedRoleListPool(maxMergedRoleLists);
+
+        final String rolesSource = customSettings.getFirst("rolesSource").orElse("http");
+        if (rolesSource.equals("file")) {
+            final Path rolesFile = customSettings.getFirst("rolesFile")
+                    .map(Path::of)
+                    .orElseThrow(() -> new NoSuchElementException("No value present for custom setting rolesFile"));
+            final Duration reloadInterval = customSettings.getFirst("rolesFileReloadInterval")
+                    .map(Duration::parse)
+                    .orElse(DEFAULT_FILE_RELOAD_INTERVAL);
+            final FileRolesSource fileRolesSource;
+            try {
+                fileRolesSource = new FileRolesSource(rolesFile, roleNamePool, reloadInterval);
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Could not index roles file " + rolesFile, e);
+            }
+            this.fileRolesSource = fileRolesSource;
+            rolesLookup = fileRolesSource::fetchRoles;
+            LOGGER.debug("FILE: {} users from {}, reload interval {}",
+                    fileRolesSource.size(),
+                    rolesFile,
+                    reloadInterval);
+            return;
+        }
+        if (!rolesSource.equals("http")) {
+            throw new IllegalArgumentException("Unsupported value for custom setting rolesSource: " + rolesSource);
+        }
+        final String unavailablePolicy = customSettings.getFirst("rolesUnavailablePolicy").orElse("internal-roles");
+        if (unavailablePolicy.equals("deny")) {
+            denyWhenUnavailable = true;
+        } else if (!unavailablePolicy.equals("internal-roles")) {
+            throw new IllegalArgumentException("Unsupported value for custom setting rolesUnavailablePolicy: " +
+                    unavailablePolicy);
+        }
+
+        final List<URI> rolesEndpoints = customSettings.getAllForName("rolesEndpoint")
+                .stream()
+                .map(URI::create)
+                .collect(Collectors.toUnmodifiableList());
+        if (rolesEndpoints.isEmpty()) {
+            throw new NoSuchElementException("No value present for custom setting rolesEndpoint");
+        }
+        LOGGER.debug("ENDPOINTS: {}", rolesEndpoints);
+
+        final Duration connectTimeout =
+                customSettings.getFirst("rolesConnectTimeout").map(Duration::parse).orElse(DEFAULT_CONNECT_TIMEOUT);
+        final Duration requestTimeout =
+                customSettings.getFirst("rolesRequestTimeout").map(Duration::parse).orElse(DEFAULT_REQUEST_TIMEOUT);
+        final int maxInFlight = customSettings.getFirst("rolesMaxInFlight").map(Integer::parseInt).orElse(0);
+        final int circuitBreakerFailureThreshold = customSettings.getFirst("rolesCircuitBreakerFailureThreshold")
+                .map(Integer::parseInt)
+                .orElse(0);
+        final Duration circuitBreakerOpenDuration = customSettings.getFirst("rolesCircuitBreakerOpenDuration")
+                .map(Duration::parse)
+                .orElse(DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION);
+        final double hedgePercentile =
+                customSettings.getFirst("rolesHedgePercentile").map(Double::parseDouble).orElse(0d);
+        final Duration hedgeMinDelay =
+                customSettings.getFirst("rolesHedgeMinDelay").map(Duration::parse).orElse(DEFAULT_HEDGE_MIN_DELAY);
+        final long maxResponseBytes = customSettings.getFirst("rolesMaxResponseBytes")
+                .map(Long::parseLong)
+                .orElse(DEFAULT_MAX_RESPONSE_BYTES);
+        final RolesEndpointClient rolesEndpointClient = new RolesEndpointClient(rolesEndpoints,
+                connectTimeout,
+                requestTimeout,
+                maxInFlight,
+                circuitBreakerFailureThreshold,
+                circuitBreakerOpenDuration,
+                hedgePercentile,
+                hedgeMinDelay,
+                roleNamePool,
+                maxResponseBytes,
+                metricRegistry);
+        this.rolesEndpointClient = rolesEndpointClient;
+        LOGGER.debug("CLIENT: connect timeout {}, request timeout {}, max in-flight {}, circuit breaker {}, hedge {}",
+                connectTimeout,
+                requestTimeout,
+                maxInFlight,
+                circuitBreakerFailureThreshold,
+                hedgePercentile);
+
+        final Function<String, CompletableFuture<List<String>>> fetcher;
+        final int batchMaxSize = customSettings.getFirst("rolesBatchMaxSize").map(Integer::parseInt).orElse(0);
+        if (batchMaxSize > 1) {
+            final Duration batchWindow =
+                    customSettings.getFirst("rolesBatchWindow").map(Duration::parse).orElse(DEFAULT_BATCH_WINDOW);
+            final RoleLookupBatcher batcher =
+                    new RoleLookupBatcher(batchMaxSize, batchWindow, rolesEndpointClient::fetchRolesBatch);
+            this.batcher = batcher;
+            fetcher = batcher::get;
+            LOGGER.debug("BATCH: max size {}, window {}", batchMaxSize, batchWindow);
+        } else {
+            fetcher = rolesEndpointClient::fetchRoles;
+        }
+
+        // concurrent lookups for the same key share one request, with and without the role cache
+        final RoleRequestCoalescer coalescer = new RoleRequestCoalescer(fetcher);
+        rolesLookup = coalescer::get;
+
+        final int cacheMaxEntries = customSettings.getFirst("rolesCacheMaxEntries").map(Integer::parseInt).orElse(0);
+        if (cacheMaxEntries > 0) {
+            final Duration cacheTtl =
+                    customSettings.getFirst("rolesCacheTtl").map(Duration::parse).orElse(DEFAULT_CACHE_TTL);
+            final Duration cacheRefreshAhead = customSettings.getFirst("rolesCacheRefreshAhead")
+                    .map(Duration::parse)
+                    .orElse(DEFAULT_CACHE_REFRESH_AHEAD);
+            final Duration cacheNegativeTtl =
+                    customSettings.getFirst("rolesCacheNegativeTtl").map(Duration::parse).orElse(cacheTtl);
+            final Duration cacheMaxStaleness =
+                    customSettings.getFirst("rolesCacheMaxStaleness").map(Duration::parse).orElse(Duration.ZERO);
+            final Duration cacheStaleRetryInterval = customSettings.getFirst("rolesCacheStaleRetryInterval")
+                    .map(Duration::parse)
+                    .orElse(DEFAULT_CACHE_STALE_RETRY_INTERVAL);
+            final RoleCache roleCache = new RoleCache(cacheMaxEntries,
+                    cacheTtl,
+                    cacheRefreshAhead,
+                    cacheNegativeTtl,
+                    cacheMaxStaleness,
+                    cacheStaleRetryInterval,
+                    coalescer::get,
+                    metricRegistry.counter(MetricRegistry.name(ExternalRolesCommonPreprocessor.class,
+                            "roles",
+                            "cache",
+                            "hit",
+                            "count")),
+                    metricRegistry.counter(MetricRegistry.name(ExternalRolesCommonPreprocessor.class,
+                            "roles",
+                            "cache",
+                            "miss",
+                            "count")),
+                    metricRegistry.counter(MetricRegistry.name(ExternalRolesCommonPreprocessor.class,
+                            "roles",
+                            "cache",
+                            "stale",
+                            "count")));
+            this.roleCache = roleCache;
+            rolesLookup = roleCache::get;
+            LOGGER.debug("CACHE: max entries {}, ttl {}, refresh ahead {}, negative ttl {}, max staleness {}, " +
+                            "stale retry interval {}",
+                    cacheMaxEntries,
+                    cacheTtl,
+                    cacheRefreshAhead,
+                    cacheNegativeTtl,
+                    cacheMaxStaleness,
+                    cacheStaleRetryInterval);
+
+            snapshotFile = customSettings.getFirst("rolesSnapshotFile").map(Path::of).orElse(null);
+            if (snapshotFile != null) {
+                final Duration snapshotMaxAge = customSettings.getFirst("rolesSnapshotMaxAge")
+                        .map(Duration::parse)
+                        .orElse(DEFAULT_SNAPSHOT_MAX_AGE);
+                try {
+                    final RoleSnapshot snapshot = RoleSnapshot.read(snapshotFile, roleNamePool);
+                    if (snapshot != null) {
+                        roleCache.warmStart(snapshot, snapshotMaxAge);
+                        LOGGER.debug("SNAPSHOT: loaded {} entries from {}", snapshot.size(), snapshotFile);
+                    }
+                } catch (final IOException | RuntimeException e) {
+                    LOGGER.warn("SNAPSHOT LOAD FAILED", e);
+                }
+            }
+
+            final URI changeFeedEndpoint =
+                    customSettings.getFirst("rolesChangeFeedEndpoint").map(URI::create).orElse(null);
+            if (changeFeedEndpoint != null) {
+                final Duration changeFeedMaxBackoff = customSettings.getFirst("rolesChangeFeedMaxBackoff")
+                        .map(Duration::parse)
+                        .orElse(DEFAULT_CHANGE_FEED_MAX_BACKOFF);
+                final Duration changeFeedIdleTimeout = customSettings.getFirst("rolesChangeFeedIdleTimeout")
+                        .map(Duration::parse)
+                        .orElse(Duration.ZERO);
+                final RolesChangeFeed changeFeed = new RolesChangeFeed(changeFeedEndpoint,
+                        roleCache,
+                        coalescer,
+                        roleNamePool,
+                        connectTimeout,
+                        changeFeedMaxBackoff,
+                        changeFeedIdleTimeout);
+                this.changeFeed = changeFeed;
+                changeFeed.start();
+                LOGGER.debug("CHANGE FEED: {}, idle timeout {}", changeFeedEndpoint, changeFeedIdleTimeout);
+            }
+
+            final URI preloadEndpoint = customSettings.getFirst("rolesPreloadEndpoint").map(URI::create).orElse(null);
+            if (preloadEndpoint != null) {
+                final boolean preloadBackground =
+                        customSettings.getFirst("rolesPreloadBackground").map(Boolean::parseBoolean).orElse(true);
+                final RolesPreloader preloader = new RolesPreloader(preloadEndpoint,
+                        roleCache,
+                        roleNamePool,
+                        connectTimeout,
+                        requestTimeout);
+                this.preloader = preloader;
+                preloader.start();
+                LOGGER.debug("PRELOAD: {}, background {}", preloadEndpoint, preloadBackground);
+                if (!preloadBackground) {
+                    try {
+                        preloader.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
     }
 
     @Override
@@ -77,45 +325,85 @@ public class ExternalRolesCommonPreprocessor implements CommonPreprocessor {
             final @NotNull CommonPreprocessorProcessOutput output) {
         LOGGER.debug("PROCESS");
 
+        final long startNanos = System.nanoTime();
         final Async<CommonPreprocessorProcessOutput> async = output.async();
         try {
-            final URI requestUri = new URI( //
-                    requireNonNull(rolesEndpoint).getScheme(),
-                    rolesEndpoint.getAuthority(),
-                    rolesEndpoint.getPath(),
-                    "user=" + input.getEseVariablesInput().getAuthorizationKey().orElseThrow(),
-                    rolesEndpoint.getFragment());
-            LOGGER.debug("URI: {}", requestUri);
-
-            final HttpRequest request = HttpRequest.newBuilder().timeout(Duration.ofSeconds(5)).uri(requestUri).build();
-
-            // Consider caching the response.
-            httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()) //
-                    .thenApply(HttpResponse::body) //
-                    .thenAccept(body -> {
-                        if (body != null && !body.isEmpty()) {
-                            final List<String> roles = new ArrayList<>();
-                            roles.addAll(input.getEseVariablesInput().getAuthorizationRoleKey().orElse(List.of()));
-                            roles.addAll(List.of(body.split(",")));
+            final String authorizationKey = input.getEseVariablesInput().getAuthorizationKey().orElseThrow();
+            final CompletableFuture<List<String>> externalRoles = requireNonNull(rolesLookup).apply(authorizationKey);
+
+            externalRoles //
+                    .thenAccept(external -> {
+                        if (!external.isEmpty()) {
+                            final List<String> roles = requireNonNull(mergedRoleListPool).merge(
+                                    input.getEseVariablesInput().getAuthorizationRoleKey().orElse(List.of()),
+                                    external);
 
                             LOGGER.debug("ROLES: {}", roles);
                             output.getEseVariablesOutput().setAuthorizationRoleKey(roles);
                         }
                     }).exceptionally(throwable -> {
-                        LOGGER.warn("REQUEST FAILED", throwable);
+                        final Throwable cause =
+                                throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                        if (cause instanceof RolesUnavailableException) {
+                            // fail fast and continue with the internal roles only
+                            LOGGER.debug("REQUEST REJECTED: {}", cause.getMessage());
+                        } else {
+                            LOGGER.warn("REQUEST FAILED", throwable);
+                        }
+                        if (denyWhenUnavailable) {
+                            // without roles, the client is not authorized for anything
+                            output.getEseVariablesOutput().setAuthorizationRoleKey(List.of());
+                        }
                         return null;
                     })
                     // Always call async.resume() when finished.
-                    .thenRun(async::resume);
+                    .thenRun(() -> resume(async, startNanos));
         } catch (final Exception e) {
             LOGGER.warn("PROCESS FAILED", e);
             // Always call async.resume() when finished.
-            async.resume();
+            resume(async, startNanos);
         }
     }
 
+    private void resume(final @NotNull Async<CommonPreprocessorProcessOutput> async, final long startNanos) {
+        requireNonNull(processTimer).update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        async.resume();
+    }
+
     @Override
     public void shutdown(final @NotNull CommonPreprocessorShutdownInput input) {
         LOGGER.debug("SHUTDOWN");
+
+        final FileRolesSource fileRolesSource = this.fileRolesSource;
+        if (fileRolesSource != null) {
+            fileRolesSource.shutdown();
+        }
+        final RolesPreloader preloader = this.preloader;
+        if (preloader != null) {
+            preloader.shutdown();
+        }
+        final RolesChangeFeed changeFeed = this.changeFeed;
+        if (changeFeed != null) {
+            changeFeed.shutdown();
+        }
+        final RoleCache roleCache = this.roleCache;
+        final Path snapshotFile = this.snapshotFile;
+        if (roleCache != null && snapshotFile != null) {
+            try {
+                final Map<String, List<String>> rolesByKey = roleCache.snapshot();
+                RoleSnapshot.write(snapshotFile, rolesByKey);
+                LOGGER.debug("SNAPSHOT: wrote {} entries to {}", rolesByKey.size(), snapshotFile);
+            } catch (final IOException | RuntimeException e) {
+                LOGGER.warn("SNAPSHOT WRITE FAILED", e);
+            }
+        }
+        final RoleLookupBatcher batcher = this.batcher;
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+        final RolesEndpointClient rolesEndpointClient = this.rolesEndpointClient;
+        if (rolesEndpointClient != null) {
+            rolesEndpointClient.shutdown();
+        }
     }
 }
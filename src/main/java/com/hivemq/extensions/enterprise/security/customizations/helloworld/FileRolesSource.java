@@ -0,0 +1,345 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves external roles from a local file instead of the roles endpoint.
+ * <p>
+ * The file contains one line per user in the format {@code <user>=<role>,<role>,...}. Empty lines and lines starting
+ * with {@code #} are ignored. At start, the file is read once and indexed into a memory-mapped hash table in a
+ * temporary file, so the index of millions of users stays off-heap. The distinct role lists are dictionary-encoded:
+ * each user refers to the id of its role list and each role list exists only once on the heap, as a completed future
+ * that is shared by all lookups. A lookup therefore only probes the hash table and does not allocate for ASCII user
+ * names.
+ * <p>
+ * The file is checked for changes periodically. A changed file is indexed in the background and the new index replaces
+ * the old one with a single volatile write.
+ *
+ * @since 4.36.0
+ */
+class FileRolesSource {
+
+    private static final @NotNull Logger LOGGER = LoggerFactory.getLogger(FileRolesSource.class);
+    private static final @NotNull CompletableFuture<List<String>> NO_ROLES =
+            CompletableFuture.completedFuture(List.of());
+
+    private final @NotNull Path rolesFile;
+    private final @NotNull RoleNamePool roleNamePool;
+    private final @NotNull ScheduledExecutorService scheduler;
+    private volatile @NotNull Index index;
+    private @Nullable FileTime indexedModifiedTime;
+    private long indexedSize;
+
+    FileRolesSource(
+            final @NotNull Path rolesFile,
+            final @NotNull RoleNamePool roleNamePool,
+            final @NotNull Duration reloadInterval) throws IOException {
+        if (reloadInterval.toMillis() <= 0) {
+            throw new IllegalArgumentException("reloadInterval must be at least one millisecond, but was " +
+                    reloadInterval);
+        }
+        this.rolesFile = rolesFile;
+        this.roleNamePool = roleNamePool;
+        indexedModifiedTime = Files.getLastModifiedTime(rolesFile);
+        indexedSize = Files.size(rolesFile);
+        index = Index.build(rolesFile, roleNamePool);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "external-roles-file-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reloadIfChanged,
+                reloadInterval.toMillis(),
+                reloadInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param authorizationKey the authorization key.
+     * @return a completed future with the external roles of the authorization key, or no roles if the file does not
+     *         contain the authorization key.
+     */
+    @NotNull CompletableFuture<List<String>> fetchRoles(final @NotNull String authorizationKey) {
+        return index.lookup(authorizationKey);
+    }
+
+    /**
+     * @return the number of indexed users.
+     */
+    int size() {
+        return index.size;
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void reloadIfChanged() {
+        try {
+            final FileTime modifiedTime = Files.getLastModifiedTime(rolesFile);
+            final long size = Files.size(rolesFile);
+            if (modifiedTime.equals(indexedModifiedTime) && size == indexedSize) {
+                return;
+            }
+            final long startNanos = System.nanoTime();
+            final Index reloaded = Index.build(rolesFile, roleNamePool);
+            index = reloaded;
+            indexedModifiedTime = modifiedTime;
+            indexedSize = size;
+            LOGGER.debug("ROLES FILE RELOADED: {} users in {} ms",
+                    reloaded.size,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("ROLES FILE RELOAD FAILED", e);
+        }
+    }
+
+    /**
+     * An open addressing hash table in a memory-mapped file, behind the key area with the length-prefixed UTF-8 encoded
+     * users. Each slot holds the hash of the user, the offset of the user in the key area (+1, so 0 marks an empty
+     * slot) and the id of the role list.
+     */
+    private static final class Index {
+
+        private static final int SLOT_BYTES = 3 * Integer.BYTES;
+
+        private final @NotNull MappedByteBuffer buffer;
+        private final int tableOffset;
+        private final int mask;
+        private final @NotNull List<CompletableFuture<List<String>>> roleLists;
+        private final int size;
+
+        private Index(
+                final @NotNull MappedByteBuffer buffer,
+                final int tableOffset,
+                final int slots,
+                final @NotNull List<CompletableFuture<List<String>>> roleLists,
+                final int size) {
+            this.buffer = buffer;
+            this.tableOffset = tableOffset;
+            this.mask = slots - 1;
+            this.roleLists = roleLists;
+            this.size = size;
+        }
+
+        /**
+         * Reads the file once. The UTF-8 encoded users are appended to the key area of the index file while they are
+         * read, and only the hash, key offset and role list id of each user are buffered on the heap until the number
+         * of users, and with it the size of the hash table behind the key area, is known.
+         */
+        static @NotNull Index build(final @NotNull Path rolesFile, final @NotNull RoleNamePool roleNamePool)
+                throws IOException {
+            final Map<List<String>, Integer> roleListIds = new HashMap<>();
+            final List<CompletableFuture<List<String>>> roleLists = new ArrayList<>();
+            final Path indexFile = Files.createTempFile("external-roles-", ".idx");
+            try (final FileChannel channel = FileChannel.open(indexFile,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE)) {
+                // the stream is not closed, as this would close the channel before it is mapped
+                final DataOutputStream keys =
+                        new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                int[] entries = new int[3 * 1024];
+                int users = 0;
+                long keyBytes = 0;
+                try (final BufferedReader reader = Files.newBufferedReader(rolesFile, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        final int separator = separator(line);
+                        if (separator <= 0) {
+                            continue;
+                        }
+                        final String user = user(line, separator);
+                        final byte[] userBytes = user.getBytes(StandardCharsets.UTF_8);
+                        if (keyBytes + Integer.BYTES + userBytes.length > Integer.MAX_VALUE) {
+                            throw new IOException("roles file " + rolesFile + " is too large to be indexed");
+                        }
+                        final List<String> roles = roles(line, separator, roleNamePool);
+                        Integer roleListId = roleListIds.get(roles);
+                        if (roleListId == null) {
+                            roleListId = roleLists.size();
+                            roleListIds.put(roles, roleListId);
+                            roleLists.add(CompletableFuture.completedFuture(roles));
+                        }
+                        if (entries.length == 3 * users) {
+                            entries = Arrays.copyOf(entries, entries.length * 2);
+                        }
+                        entries[3 * users] = spread(user.hashCode());
+                        entries[3 * users + 1] = (int) keyBytes + 1;
+                        entries[3 * users + 2] = roleListId;
+                        users++;
+                        keys.writeInt(userBytes.length);
+                        keys.write(userBytes);
+                        keyBytes += Integer.BYTES + userBytes.length;
+                    }
+                }
+                keys.flush();
+
+                int slots = 16;
+                while (slots < users * 2L) {
+                    slots *= 2;
+                }
+                final long indexBytes = keyBytes + (long) slots * SLOT_BYTES;
+                if (indexBytes > Integer.MAX_VALUE) {
+                    throw new IOException("roles file " + rolesFile + " is too large to be indexed");
+                }
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes);
+                final int tableOffset = (int) keyBytes;
+                final int mask = slots - 1;
+                int size = 0;
+                for (int i = 0; i < users; i++) {
+                    final int hash = entries[3 * i];
+                    final int keyOffset = entries[3 * i + 1];
+                    int slot = hash & mask;
+                    while (true) {
+                        final int slotPosition = tableOffset + slot * SLOT_BYTES;
+                        final int slotKeyOffset = buffer.getInt(slotPosition + Integer.BYTES);
+                        if (slotKeyOffset == 0) {
+                            buffer.putInt(slotPosition, hash);
+                            buffer.putInt(slotPosition + Integer.BYTES, keyOffset);
+                            buffer.putInt(slotPosition + 2 * Integer.BYTES, entries[3 * i + 2]);
+                            size++;
+                            break;
+                        }
+                        if (buffer.getInt(slotPosition) == hash &&
+                                keysEqual(buffer, slotKeyOffset - 1, keyOffset - 1)) {
+                            // a later line for the same user replaces the earlier one
+                            buffer.putInt(slotPosition + 2 * Integer.BYTES, entries[3 * i + 2]);
+                            break;
+                        }
+                        slot = (slot + 1) & mask;
+                    }
+                }
+                return new Index(buffer, tableOffset, slots, List.copyOf(roleLists), size);
+            }
+        }
+
+        @NotNull CompletableFuture<List<String>> lookup(final @NotNull String user) {
+            final int hash = spread(user.hashCode());
+            int slot = hash & mask;
+            while (true) {
+                final int slotPosition = tableOffset + slot * SLOT_BYTES;
+                final int keyOffset = buffer.getInt(slotPosition + Integer.BYTES);
+                if (keyOffset == 0) {
+                    return NO_ROLES;
+                }
+                if (buffer.getInt(slotPosition) == hash && keyEquals(buffer, keyOffset - 1, user)) {
+                    return roleLists.get(buffer.getInt(slotPosition + 2 * Integer.BYTES));
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Compares the UTF-8 encoded key at the position with the user. ASCII users are compared without allocation.
+         */
+        private static boolean keyEquals(
+                final @NotNull MappedByteBuffer buffer,
+                final int position,
+                final @NotNull String user) {
+            final int length = buffer.getInt(position);
+            final int bytesPosition = position + Integer.BYTES;
+            if (length == user.length()) {
+                boolean ascii = true;
+                for (int i = 0; i < length; i++) {
+                    final byte b = buffer.get(bytesPosition + i);
+                    if (b < 0) {
+                        ascii = false;
+                        break;
+                    }
+                    if (b != user.charAt(i)) {
+                        return false;
+                    }
+                }
+                if (ascii) {
+                    return true;
+                }
+            }
+            final byte[] bytes = new byte[length];
+            buffer.duplicate().position(bytesPosition).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8).equals(user);
+        }
+
+        /**
+         * Compares the UTF-8 encoded keys at the positions.
+         */
+        private static boolean keysEqual(
+                final @NotNull MappedByteBuffer buffer,
+                final int position,
+                final int otherPosition) {
+            final int length = buffer.getInt(position);
+            if (buffer.getInt(otherPosition) != length) {
+                return false;
+            }
+            for (int i = Integer.BYTES; i < Integer.BYTES + length; i++) {
+                if (buffer.get(position + i) != buffer.get(otherPosition + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int separator(final @NotNull String line) {
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                return -1;
+            }
+            return line.lastIndexOf('=');
+        }
+
+        private static @NotNull String user(final @NotNull String line, final int separator) {
+            return line.substring(0, separator).trim();
+        }
+
+        private static @NotNull List<String> roles(
+                final @NotNull String line,
+                final int separator,
+                final @NotNull RoleNamePool roleNamePool) {
+            return RolesBodySubscriber.parse(line.substring(separator + 1), roleNamePool);
+        }
+
+        private static int spread(final int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
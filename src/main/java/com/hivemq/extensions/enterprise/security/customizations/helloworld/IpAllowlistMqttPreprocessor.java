@@ -16,7 +16,9 @@
 package com.hivemq.extensions.enterprise.security.customizations.helloworld;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.hivemq.extensions.enterprise.security.api.preprocessor.MqttPreprocessor;
 import com.hivemq.extensions.enterprise.security.api.preprocessor.MqttPreprocessorInitInput;
 import com.hivemq.extensions.enterprise.security.api.preprocessor.MqttPreprocessorProcessInput;
@@ -27,8 +29,19 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Objects.requireNonNull;
 
@@ -42,7 +55,12 @@ import static java.util.Objects.requireNonNull;
  *     <li>Checks if the client IP is part of the configured IP allowlist.</li>
  *     <li>When the client IP is not part of the IP allowlist, the ESE variables {@code authentication-key}
  *     and {@code authentication-byte-secret} are set to {@code null}.</li>
+ *     <li>When connect rate limiting is enabled and the client IP is over its limit, the ESE variables
+ *     {@code authentication-key} and {@code authentication-byte-secret} are set to {@code null} as well.</li>
  * </ol>
+ * The custom settings for the IP allowlist, the allowlist file and connect rate limiting are described in
+ * {@code README.adoc}.
+ * <p>
  * An example {@code ip-allowlist-config.xml} file that enables this preprocessor is provided in {@code src/test/resources}.
  *
  * @author Mario Schwede
@@ -51,10 +69,25 @@ import static java.util.Objects.requireNonNull;
 public class IpAllowlistMqttPreprocessor implements MqttPreprocessor {
 
     private static final @NotNull Logger LOGGER = LoggerFactory.getLogger(IpAllowlistMqttPreprocessor.class);
+    private static final @NotNull Duration DEFAULT_FILE_RELOAD_INTERVAL = Duration.ofSeconds(10);
+    private static final int DEFAULT_CONNECT_RATE_IPV4_PREFIX_LENGTH = 32;
+    private static final int DEFAULT_CONNECT_RATE_IPV6_PREFIX_LENGTH = 64;
+    private static final int DEFAULT_CONNECT_RATE_MAX_ENTRIES = 65_536;
+    private static final @NotNull String ENTRIES_GAUGE_NAME =
+            MetricRegistry.name(IpAllowlistMqttPreprocessor.class, "ip", "allowlist", "entries");
 
     private @Nullable Counter ipAllowCounter;
     private @Nullable Counter ipDenyCounter;
-    private @Nullable Set<String> ipAllowlist;
+    private @Nullable Counter ipRateLimitedCounter;
+    private @Nullable Timer processTimer;
+    private @Nullable ConnectRateLimiter connectRateLimiter;
+    private @Nullable Timer reloadTimer;
+    private @Nullable Counter reloadFailureCounter;
+    private @Nullable MetricRegistry metricRegistry;
+    private volatile @Nullable IpPrefixTrie ipAllowlist;
+    private @Nullable ScheduledExecutorService reloader;
+    private @Nullable FileTime loadedModifiedTime;
+    private long loadedSize;
 
     @Override
     public void init(final @NotNull MqttPreprocessorInitInput input) {
@@ -64,7 +97,92 @@ public class IpAllowlistMqttPreprocessor implements MqttPreprocessor {
                 .counter(MetricRegistry.name(IpAllowlistMqttPreprocessor.class, "ip", "allow", "count"));
         ipDenyCounter = input.getMetricRegistry()
                 .counter(MetricRegistry.name(IpAllowlistMqttPreprocessor.class, "ip", "deny", "count"));
-        ipAllowlist = Set.copyOf(input.getCustomSettings().getAllForName("ipAllowlist"));
+        ipRateLimitedCounter = input.getMetricRegistry()
+                .counter(MetricRegistry.name(IpAllowlistMqttPreprocessor.class, "ip", "rate", "limited", "count"));
+        processTimer = PreprocessorMetrics.timer(input.getMetricRegistry(),
+                MetricRegistry.name(IpAllowlistMqttPreprocessor.class, "process", "time"));
+
+        final double connectRate =
+                input.getCustomSettings().getFirst("ipConnectRate").map(Double::parseDouble).orElse(0d);
+        if (connectRate > 0) {
+            final double connectBurst = input.getCustomSettings()
+                    .getFirst("ipConnectBurst")
+                    .map(Double::parseDouble)
+                    .orElse(Math.max(1, connectRate));
+            final int ipv4PrefixLength = input.getCustomSettings()
+                    .getFirst("ipConnectRateIpv4PrefixLength")
+                    .map(Integer::parseInt)
+                    .orElse(DEFAULT_CONNECT_RATE_IPV4_PREFIX_LENGTH);
+            final int ipv6PrefixLength = input.getCustomSettings()
+                    .getFirst("ipConnectRateIpv6PrefixLength")
+                    .map(Integer::parseInt)
+                    .orElse(DEFAULT_CONNECT_RATE_IPV6_PREFIX_LENGTH);
+            final int maxEntries = input.getCustomSettings()
+                    .getFirst("ipConnectRateMaxEntries")
+                    .map(Integer::parseInt)
+                    .orElse(DEFAULT_CONNECT_RATE_MAX_ENTRIES);
+            connectRateLimiter =
+                    new ConnectRateLimiter(connectRate, connectBurst, ipv4PrefixLength, ipv6PrefixLength, maxEntries);
+            LOGGER.debug("CONNECT RATE: {}/s, burst {}, prefix lengths {}/{}, max entries {}",
+                    connectRate,
+                    connectBurst,
+                    ipv4PrefixLength,
+                    ipv6PrefixLength,
+                    maxEntries);
+        }
+
+        final List<String> entries = input.getCustomSettings().getAllForName("ipAllowlist");
+        final Path file = input.getCustomSettings().getFirst("ipAllowlistFile").map(Path::of).orElse(null);
+        if (file == null) {
+            final IpPrefixTrie ipAllowlist = new IpPrefixTrie();
+            entries.forEach(ipAllowlist::add);
+            this.ipAllowlist = ipAllowlist;
+            LOGGER.debug("IP ALLOWLIST: {} entries", ipAllowlist.size());
+            return;
+        }
+
+        final MetricRegistry metricRegistry = input.getMetricRegistry();
+        this.metricRegistry = metricRegistry;
+        reloadTimer = PreprocessorMetrics.timer(metricRegistry, MetricRegistry.name(IpAllowlistMqttPreprocessor.class,
+                "ip",
+                "allowlist",
+                "reload",
+                "time"));
+        reloadFailureCounter = metricRegistry.counter(MetricRegistry.name(IpAllowlistMqttPreprocessor.class,
+                "ip",
+                "allowlist",
+                "reload",
+                "failure",
+                "count"));
+        metricRegistry.gauge(ENTRIES_GAUGE_NAME, () -> (Gauge<Integer>) () -> {
+            final IpPrefixTrie ipAllowlist = this.ipAllowlist;
+            return ipAllowlist == null ? 0 : ipAllowlist.size();
+        });
+        final Duration reloadInterval = input.getCustomSettings()
+                .getFirst("ipAllowlistFileReloadInterval")
+                .map(Duration::parse)
+                .orElse(DEFAULT_FILE_RELOAD_INTERVAL);
+        if (reloadInterval.toMillis() <= 0) {
+            throw new IllegalArgumentException(
+                    "Custom setting ipAllowlistFileReloadInterval must be at least one millisecond, but was " +
+                            reloadInterval);
+        }
+        try {
+            load(entries, file);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not read IP allowlist file " + file, e);
+        }
+
+        final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ip-allowlist-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.reloader = reloader;
+        reloader.scheduleWithFixedDelay(() -> reloadIfChanged(entries, file),
+                reloadInterval.toMillis(),
+                reloadInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -73,26 +191,100 @@ public class IpAllowlistMqttPreprocessor implements MqttPreprocessor {
             final @NotNull MqttPreprocessorProcessOutput output) {
         LOGGER.debug("PROCESS");
 
+        final long startNanos = System.nanoTime();
         try {
-            final String clientIp =
-                    input.getConnectionInformation().getInetAddress().map(InetAddress::getHostAddress).orElse(null);
-            if (clientIp != null && requireNonNull(ipAllowlist).contains(clientIp)) {
+            final InetAddress clientIp = input.getConnectionInformation().getInetAddress().orElse(null);
+            final byte[] address = clientIp == null ? null : clientIp.getAddress();
+            if (address != null && requireNonNull(ipAllowlist).contains(address)) {
+                final ConnectRateLimiter connectRateLimiter = this.connectRateLimiter;
+                if (connectRateLimiter != null && !connectRateLimiter.tryAcquire(address, startNanos)) {
+                    output.getEseVariablesOutput().setAuthenticationKey(null);
+                    output.getEseVariablesOutput().setAuthenticationByteSecret(null);
+
+                    requireNonNull(ipRateLimitedCounter).inc();
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("RATE LIMITED CLIENT IP: {}", clientIp.getHostAddress());
+                    }
+                    return;
+                }
                 requireNonNull(ipAllowCounter).inc();
-                LOGGER.debug("ALLOWED CLIENT IP: {}", clientIp);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("ALLOWED CLIENT IP: {}", clientIp.getHostAddress());
+                }
             } else {
                 output.getEseVariablesOutput().setAuthenticationKey(null);
                 output.getEseVariablesOutput().setAuthenticationByteSecret(null);
 
                 requireNonNull(ipDenyCounter).inc();
-                LOGGER.debug("UNKNOWN CLIENT IP: {}", clientIp);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("UNKNOWN CLIENT IP: {}", clientIp == null ? null : clientIp.getHostAddress());
+                }
             }
         } catch (final RuntimeException e) {
             LOGGER.warn("PROCESS FAILED", e);
+        } finally {
+            requireNonNull(processTimer).update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
         }
     }
 
     @Override
     public void shutdown(final @NotNull MqttPreprocessorShutdownInput input) {
         LOGGER.debug("SHUTDOWN");
+
+        final ScheduledExecutorService reloader = this.reloader;
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+        final MetricRegistry metricRegistry = this.metricRegistry;
+        if (metricRegistry != null) {
+            metricRegistry.remove(ENTRIES_GAUGE_NAME);
+        }
+    }
+
+    private void reloadIfChanged(final @NotNull List<String> entries, final @NotNull Path file) {
+        try {
+            if (Files.getLastModifiedTime(file).equals(loadedModifiedTime) && Files.size(file) == loadedSize) {
+                return;
+            }
+            load(entries, file);
+        } catch (final IOException | RuntimeException e) {
+            requireNonNull(reloadFailureCounter).inc();
+            LOGGER.warn("IP ALLOWLIST RELOAD FAILED", e);
+        }
+    }
+
+    /**
+     * Reads the allowlist file into a new allowlist and publishes it once it is complete.
+     */
+    private void load(final @NotNull List<String> entries, final @NotNull Path file) throws IOException {
+        final long startNanos = System.nanoTime();
+        final FileTime modifiedTime = Files.getLastModifiedTime(file);
+        final long size = Files.size(file);
+        final IpPrefixTrie ipAllowlist = new IpPrefixTrie();
+        entries.forEach(ipAllowlist::add);
+        int invalidEntries = 0;
+        try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String entry = line.trim();
+                if (entry.isEmpty() || entry.charAt(0) == '#') {
+                    continue;
+                }
+                try {
+                    ipAllowlist.add(entry);
+                } catch (final IllegalArgumentException e) {
+                    invalidEntries++;
+                    LOGGER.debug("INVALID IP ALLOWLIST ENTRY: {}", entry);
+                }
+            }
+        }
+        this.ipAllowlist = ipAllowlist;
+        loadedModifiedTime = modifiedTime;
+        loadedSize = size;
+        requireNonNull(reloadTimer).update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (invalidEntries > 0) {
+            LOGGER.warn("IP ALLOWLIST: ignored {} invalid entries in {}", invalidEntries, file);
+        }
+        LOGGER.debug("IP ALLOWLIST: {} entries", ipAllowlist.size());
     }
 }
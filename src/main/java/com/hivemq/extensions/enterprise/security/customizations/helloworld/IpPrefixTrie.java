@@ -0,0 +1,243 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * A set of IPv4 and IPv6 address prefixes in CIDR notation (e.g. {@code 10.0.0.0/8} or {@code 2001:db8::/32}).
+ * <p>
+ * The prefixes are held in one path-compressed binary trie (Patricia trie) per address family that is matched against
+ * the raw address bytes, so a lookup does not allocate. A lookup visits at most one node per branching bit, so its
+ * latency is bounded by the address length and does not grow with the number of prefixes. Prefixes that are covered by
+ * a shorter prefix are not stored.
+ * <p>
+ * Adding prefixes is not thread-safe. A trie has to be fully built before it is published to other threads.
+ *
+ * @since 4.36.0
+ */
+class IpPrefixTrie {
+
+    private @Nullable Node ipv4Root;
+    private @Nullable Node ipv6Root;
+    private int size;
+
+    /**
+     * Adds an IP address or a CIDR prefix. Host bits of a CIDR prefix are ignored.
+     *
+     * @throws IllegalArgumentException if the entry is not an IP address literal with an optional prefix length.
+     */
+    void add(final @NotNull String entry) {
+        final String trimmed = entry.trim();
+        final int slash = trimmed.indexOf('/');
+        final byte[] address = parseAddress(slash < 0 ? trimmed : trimmed.substring(0, slash));
+        final int maxLength = address.length * Byte.SIZE;
+        final int length;
+        if (slash < 0) {
+            length = maxLength;
+        } else {
+            try {
+                length = Integer.parseInt(trimmed.substring(slash + 1));
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid prefix length in IP allowlist entry " + entry);
+            }
+            if (length < 0 || length > maxLength) {
+                throw new IllegalArgumentException("Invalid prefix length in IP allowlist entry " + entry);
+            }
+        }
+        mask(address, length);
+        if (address.length == 4) {
+            ipv4Root = insert(ipv4Root, address, length);
+        } else {
+            ipv6Root = insert(ipv6Root, address, length);
+        }
+        size++;
+    }
+
+    /**
+     * @param address the raw IPv4 or IPv6 address bytes.
+     * @return {@code true} if the address is contained in any of the prefixes.
+     */
+    boolean contains(final byte @NotNull [] address) {
+        Node node = address.length == 4 ? ipv4Root : ipv6Root;
+        int matched = 0;
+        while (node != null) {
+            if (mismatch(address, node.prefix, matched, node.length) < node.length) {
+                return false;
+            }
+            if (node.terminal) {
+                return true;
+            }
+            matched = node.length;
+            node = bit(address, matched) == 0 ? node.zero : node.one;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of added entries, including entries that are covered by other entries.
+     */
+    int size() {
+        return size;
+    }
+
+    private static @NotNull Node insert(final @Nullable Node node, final byte @NotNull [] address, final int length) {
+        if (node == null) {
+            return new Node(address, length, true);
+        }
+        final int common = mismatch(address, node.prefix, 0, Math.min(node.length, length));
+        if (common == node.length) {
+            if (node.terminal) {
+                // already covered by this prefix
+                return node;
+            }
+            if (length == node.length) {
+                // the prefix covers all longer prefixes below this node
+                node.terminal = true;
+                node.zero = null;
+                node.one = null;
+                return node;
+            }
+            if (bit(address, node.length) == 0) {
+                node.zero = insert(node.zero, address, length);
+            } else {
+                node.one = insert(node.one, address, length);
+            }
+            return node;
+        }
+        if (common == length) {
+            // the new prefix covers this node and all prefixes below it
+            return new Node(address, length, true);
+        }
+        final Node branch = new Node(address, common, false);
+        final Node leaf = new Node(address, length, true);
+        if (bit(address, common) == 0) {
+            branch.zero = leaf;
+            branch.one = node;
+        } else {
+            branch.zero = node;
+            branch.one = leaf;
+        }
+        return branch;
+    }
+
+    /**
+     * @return the index of the first differing bit of the addresses in the range {@code [from, to)}, or {@code to} if
+     *         the bits in the range are equal.
+     */
+    private static int mismatch(final byte @NotNull [] a, final byte @NotNull [] b, final int from, final int to) {
+        int i = from;
+        while (i < to) {
+            final int index = i >>> 3;
+            final int diff = (a[index] ^ b[index]) & (0xFF >>> (i & 7));
+            if (diff != 0) {
+                return Math.min(to, (index << 3) + Integer.numberOfLeadingZeros(diff) - 24);
+            }
+            i = (index + 1) << 3;
+        }
+        return to;
+    }
+
+    private static int bit(final byte @NotNull [] address, final int index) {
+        return (address[index >>> 3] >>> (7 - (index & 7))) & 1;
+    }
+
+    private static void mask(final byte @NotNull [] address, final int length) {
+        for (int i = 0; i < address.length; i++) {
+            final int bits = length - i * Byte.SIZE;
+            if (bits <= 0) {
+                address[i] = 0;
+            } else if (bits < Byte.SIZE) {
+                address[i] &= (byte) (0xFF << (Byte.SIZE - bits));
+            }
+        }
+    }
+
+    /**
+     * Parses an IPv4 literal in dotted-decimal notation or an IPv6 literal. Only literals are accepted, so that no name
+     * lookups are done: IPv4 literals are parsed here, and IPv6 literals, which always contain a colon, are parsed as
+     * bracketed literals that {@link InetAddress} never resolves as names.
+     */
+    private static byte @NotNull [] parseAddress(final @NotNull String literal) {
+        if (literal.indexOf(':') < 0) {
+            final byte[] address = parseIpv4(literal);
+            if (address == null) {
+                throw new IllegalArgumentException("Invalid IP address in IP allowlist entry " + literal);
+            }
+            return address;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            final char c = literal.charAt(i);
+            if (c != ':' && c != '.' && Character.digit(c, 16) < 0) {
+                throw new IllegalArgumentException("Invalid IP address in IP allowlist entry " + literal);
+            }
+        }
+        try {
+            return InetAddress.getByName("[" + literal + "]").getAddress();
+        } catch (final UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid IP address in IP allowlist entry " + literal, e);
+        }
+    }
+
+    /**
+     * @return the address of four decimal octets separated by dots, or {@code null} if the literal has another format.
+     */
+    private static byte @Nullable [] parseIpv4(final @NotNull String literal) {
+        final byte[] address = new byte[4];
+        int octet = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < literal.length(); i++) {
+            final char c = literal.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (++digits > 3 || value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && digits > 0 && octet < 3) {
+                address[octet++] = (byte) value;
+                value = 0;
+                digits = 0;
+            } else {
+                return null;
+            }
+        }
+        if (digits == 0 || octet != 3) {
+            return null;
+        }
+        address[octet] = (byte) value;
+        return address;
+    }
+
+    private static final class Node {
+
+        final byte @NotNull [] prefix;
+        final int length;
+        boolean terminal;
+        @Nullable Node zero;
+        @Nullable Node one;
+
+        Node(final byte @NotNull [] prefix, final int length, final boolean terminal) {
+            this.prefix = prefix;
+            this.length = length;
+            this.terminal = terminal;
+        }
+    }
+}
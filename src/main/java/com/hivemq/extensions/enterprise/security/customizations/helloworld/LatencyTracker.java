@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks a percentile over the most recent latency samples.
+ * <p>
+ * The samples are written to a lock-free ring buffer. The percentile is recomputed after a quarter of the ring buffer
+ * has been overwritten, so reading it is cheap on the hot path.
+ *
+ * @since 4.36.0
+ */
+class LatencyTracker {
+
+    private static final int SAMPLES = 1024;
+    private static final int MIN_SAMPLES = 64;
+
+    private final double percentile;
+    private final @NotNull AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final @NotNull AtomicLong count = new AtomicLong();
+    private volatile long percentileNanos = -1;
+    private volatile long computedAtCount;
+
+    /**
+     * @param percentile the tracked percentile, between 0 (exclusive) and 100 (exclusive).
+     */
+    LatencyTracker(final double percentile) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100, but was " + percentile);
+        }
+        this.percentile = percentile;
+    }
+
+    void record(final long nanos) {
+        samples.set((int) (count.getAndIncrement() & (SAMPLES - 1)), nanos);
+    }
+
+    /**
+     * @return the tracked percentile in nanoseconds, or {@code -1} if there are not enough samples yet.
+     */
+    long percentileNanos() {
+        final long count = this.count.get();
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        if (percentileNanos >= 0 && count - computedAtCount < SAMPLES / 4) {
+            return percentileNanos;
+        }
+        final int size = (int) Math.min(count, SAMPLES);
+        final long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        final long result = sorted[Math.min(size - 1, (int) Math.ceil(size * percentile / 100) - 1)];
+        computedAtCount = count;
+        percentileNanos = result;
+        return result;
+    }
+}
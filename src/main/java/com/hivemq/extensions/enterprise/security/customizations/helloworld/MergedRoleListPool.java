@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A bounded pool of canonical, immutable lists of merged internal and external roles.
+ * <p>
+ * Most clients share a few distinct combinations of internal and external roles, so the merged list of a combination
+ * is built once and shared by all sessions with this combination. Looking up a combination that is already pooled
+ * does not allocate. The merged lists are held in a {@link CanonicalTable}, so lookups are lock-free and only adding a
+ * combination is synchronized. When the pool is full, merged lists are no longer pooled, so a large number of distinct
+ * combinations cannot grow it without limit. This is logged once as a warning, as the pool is never evicted and
+ * {@code rolesMaxMergedRoleLists} should then be increased.
+ *
+ * @since 4.36.0
+ */
+class MergedRoleListPool {
+
+    private static final @NotNull Logger LOGGER = LoggerFactory.getLogger(MergedRoleListPool.class);
+
+    private final @NotNull CanonicalTable<List<String>, List<String>, PooledList> lists;
+
+    MergedRoleListPool(final int maxEntries) {
+        lists = new CanonicalTable<>(maxEntries,
+                LOGGER,
+                "MERGED ROLE LIST POOL FULL: {} merged role lists are pooled, further merged role lists are not " +
+                        "shared, consider increasing rolesMaxMergedRoleLists");
+    }
+
+    /**
+     * @return the canonical immutable list of the internal roles followed by the external roles.
+     */
+    @NotNull List<String> merge(final @NotNull List<String> internal, final @NotNull List<String> external) {
+        final int hash = hash(internal, external);
+        // the key consists of both lists and has no index range
+        final PooledList pooled = lists.find(hash, internal, external, 0, 0);
+        if (pooled != null) {
+            return pooled.merged;
+        }
+        final List<String> roles = new ArrayList<>(internal.size() + external.size());
+        roles.addAll(internal);
+        roles.addAll(external);
+        final PooledList merged = new PooledList(List.copyOf(roles), internal.size(), hash);
+        return lists.add(merged, internal, external, 0, 0).merged;
+    }
+
+    private static int hash(final @NotNull List<String> internal, final @NotNull List<String> external) {
+        // the internal and external roles are hashed separately, so the same roles split differently do not match
+        final int hash = 31 * internal.hashCode() + external.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class PooledList extends CanonicalTable.Entry<List<String>, List<String>> {
+
+        final @NotNull List<String> merged;
+        final int internalSize;
+
+        PooledList(final @NotNull List<String> merged, final int internalSize, final int hash) {
+            super(hash);
+            this.merged = merged;
+            this.internalSize = internalSize;
+        }
+
+        @Override
+        boolean matches(
+                final @NotNull List<String> internal,
+                final @NotNull List<String> external,
+                final int from,
+                final int to) {
+            if (internal.size() != internalSize || internalSize + external.size() != merged.size()) {
+                return false;
+            }
+            int i = 0;
+            for (final Iterator<String> iterator = internal.iterator(); iterator.hasNext(); i++) {
+                if (!merged.get(i).equals(iterator.next())) {
+                    return false;
+                }
+            }
+            for (final Iterator<String> iterator = external.iterator(); iterator.hasNext(); i++) {
+                if (!merged.get(i).equals(iterator.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformSnapshot;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Creates the timers and histograms of the preprocessors.
+ * <p>
+ * The default reservoir of the {@link MetricRegistry} allocates a sample object per update, and the
+ * {@code SlidingWindowReservoir} of the metrics library synchronizes every update, so concurrent CONNECTs would
+ * contend on one lock per metric. The timers and histograms of the preprocessors are updated for every CONNECT, so they
+ * keep the most recent samples in a lock-free ring buffer instead. An update is a single atomic increment and an
+ * array write, it neither locks nor allocates, and the memory per metric stays constant. Only a snapshot copies the
+ * samples.
+ *
+ * @since 4.36.0
+ */
+final class PreprocessorMetrics {
+
+    private static final int SAMPLES = 1024;
+
+    private PreprocessorMetrics() {
+    }
+
+    static @NotNull Timer timer(final @NotNull MetricRegistry metricRegistry, final @NotNull String name) {
+        return metricRegistry.timer(name, () -> new Timer(new RingBufferReservoir()));
+    }
+
+    static @NotNull Histogram histogram(final @NotNull MetricRegistry metricRegistry, final @NotNull String name) {
+        return metricRegistry.histogram(name, () -> new Histogram(new RingBufferReservoir()));
+    }
+
+    /**
+     * Keeps the most recent {@link #SAMPLES} values. A snapshot that is taken during concurrent updates is not an
+     * atomic view of the samples, which does not matter for the percentiles of the metrics.
+     */
+    private static final class RingBufferReservoir implements Reservoir {
+
+        private final @NotNull AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+        private final @NotNull AtomicLong count = new AtomicLong();
+
+        @Override
+        public int size() {
+            return (int) Math.min(count.get(), SAMPLES);
+        }
+
+        @Override
+        public void update(final long value) {
+            samples.set((int) (count.getAndIncrement() & (SAMPLES - 1)), value);
+        }
+
+        @Override
+        public @NotNull Snapshot getSnapshot() {
+            final long[] values = new long[size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = samples.get(i);
+            }
+            return new UniformSnapshot(values);
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.Counter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * A size-bounded cache for external roles with a time-to-live and asynchronous refresh-ahead.
+ * <p>
+ * The entries are spread over lock-striped, access-ordered maps, so each stripe evicts its least recently used entry
+ * when it is full. An entry that is older than {@code ttl - refreshAhead} is still returned, but triggers a single
+ * background reload, so that hot keys are replaced before they expire and callers rarely wait on the loader.
+ * <p>
+ * A {@link RoleSnapshot} of a previous run can be used for warm start: a key that is not cached yet is served from the
+ * snapshot while it is revalidated in the background.
+ * <p>
+ * Keys for which the loader returned no roles are cached for {@code negativeTtl} instead of {@code ttl}, so a short
+ * negative lifetime lets newly provisioned users get their roles quickly without sending a request for every lookup
+ * of unknown users.
+ * <p>
+ * An expired entry is kept until it is evicted. When reloading an entry fails while it is expired for less than
+ * {@code maxStaleness}, the stale roles are returned instead of the failure. The stale roles are then served without
+ * calling the loader for {@code staleRetryInterval}, so that lookups of the key neither wait for nor add load to a
+ * failing loader. A failed background reload delays the next one by the same interval.
+ * <p>
+ * Each stripe tracks the keys that are being loaded together with a version per key, which is incremented when the
+ * key is invalidated or updated, or the cache is cleared. Roles that are loaded while the version of their key changed
+ * are returned, but not cached, as they may have been read before the invalidation and would otherwise bring back
+ * revoked roles. Invalidations of keys that are not being loaded do not affect other loads.
+ * <p>
+ * Lookups that are served from the cache or the snapshot are counted as hits. Lookups that are served with stale
+ * roles, including those for which reloading the expired entry failed, are counted as stale hits. All other lookups
+ * are counted as misses, so each lookup is counted exactly once.
+ *
+ * @since 4.36.0
+ */
+class RoleCache {
+
+    private static final int MAX_STRIPES = 16;
+
+    private final @NotNull Function<String, CompletableFuture<List<String>>> loader;
+    private final @NotNull Stripe @NotNull [] stripes;
+    private final long ttlNanos;
+    private final long refreshAfterNanos;
+    private final long negativeTtlNanos;
+    private final long maxStalenessNanos;
+    private final long staleRetryNanos;
+    private final @NotNull Counter hits;
+    private final @NotNull Counter misses;
+    private final @NotNull Counter staleHits;
+    private final @NotNull Set<String> warmStartInvalidated = ConcurrentHashMap.newKeySet();
+    private final @NotNull Set<String> preloadInvalidated = ConcurrentHashMap.newKeySet();
+    private volatile boolean preloading;
+    private volatile boolean preloadCleared;
+    private volatile @Nullable RoleSnapshot warmStartSnapshot;
+    private volatile long warmStartExpiryMillis;
+
+    RoleCache(
+            final int maxEntries,
+            final @NotNull Duration ttl,
+            final @NotNull Duration refreshAhead,
+            final @NotNull Duration negativeTtl,
+            final @NotNull Duration maxStaleness,
+            final @NotNull Duration staleRetryInterval,
+            final @NotNull Function<String, CompletableFuture<List<String>>> loader,
+            final @NotNull Counter hits,
+            final @NotNull Counter misses,
+            final @NotNull Counter staleHits) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive, but was " + maxEntries);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive, but was " + ttl);
+        }
+        if (negativeTtl.isNegative() || negativeTtl.isZero()) {
+            throw new IllegalArgumentException("negativeTtl must be positive, but was " + negativeTtl);
+        }
+        if (maxStaleness.isNegative()) {
+            throw new IllegalArgumentException("maxStaleness must not be negative, but was " + maxStaleness);
+        }
+        if (staleRetryInterval.isNegative()) {
+            throw new IllegalArgumentException("staleRetryInterval must not be negative, but was " +
+                    staleRetryInterval);
+        }
+        this.loader = loader;
+        this.hits = hits;
+        this.misses = misses;
+        this.staleHits = staleHits;
+        this.ttlNanos = ttl.toNanos();
+        this.refreshAfterNanos = Math.max(0, ttlNanos - refreshAhead.toNanos());
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        this.staleRetryNanos = staleRetryInterval.toNanos();
+        int stripeCount = 1;
+        while (stripeCount < MAX_STRIPES && stripeCount * 2 <= maxEntries) {
+            stripeCount *= 2;
+        }
+        final int stripeCapacity = (maxEntries + stripeCount - 1) / stripeCount;
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    /**
+     * Returns the cached roles for the key, or loads them if there is no entry or the entry is expired.
+     *
+     * @param key the authorization key.
+     * @return a future that completes with the external roles of the key.
+     */
+    @NotNull CompletableFuture<List<String>> get(final @NotNull String key) {
+        final Stripe stripe = stripeFor(key);
+        final CacheEntry entry;
+        synchronized (stripe) {
+            entry = stripe.get(key);
+        }
+        if (entry != null) {
+            final long nowNanos = System.nanoTime();
+            final long age = nowNanos - entry.loadedNanos;
+            if (entry.roles.isEmpty()) {
+                // negative entries are not refreshed ahead, unknown keys are rarely looked up repeatedly
+                if (age < negativeTtlNanos) {
+                    hits.inc();
+                    return entry.future;
+                }
+            } else if (age < ttlNanos) {
+                if (age >= refreshAfterNanos &&
+                        nowNanos - entry.staleUntilNanos >= 0 &&
+                        entry.refreshing.compareAndSet(false, true)) {
+                    refresh(key, entry);
+                }
+                hits.inc();
+                return entry.future;
+            }
+            final long staleness = age - (entry.roles.isEmpty() ? negativeTtlNanos : ttlNanos);
+            if (staleness < maxStalenessNanos) {
+                if (nowNanos - entry.staleUntilNanos < 0) {
+                    staleHits.inc();
+                    return entry.future;
+                }
+                // counted when the reload completed, as either a miss or a stale hit
+                return loadOrStale(key, entry);
+            }
+        } else {
+            final CompletableFuture<List<String>> warmStartRoles = getWarmStart(key);
+            if (warmStartRoles != null) {
+                hits.inc();
+                return warmStartRoles;
+            }
+        }
+        misses.inc();
+        return load(key);
+    }
+
+    /**
+     * Serves keys that are not cached yet from the snapshot until the snapshot expires.
+     *
+     * @param snapshot the snapshot of a previous run.
+     * @param maxAge   how long after it was written the snapshot may be used.
+     */
+    void warmStart(final @NotNull RoleSnapshot snapshot, final @NotNull Duration maxAge) {
+        warmStartExpiryMillis = snapshot.writtenAtMillis() + maxAge.toMillis();
+        warmStartSnapshot = snapshot;
+    }
+
+    private void invalidateWarmStart(final @NotNull String key) {
+        if (warmStartSnapshot != null) {
+            warmStartInvalidated.add(key);
+        }
+    }
+
+    /**
+     * @return a copy of the roles of all cached keys, without the entries that are expired for longer than
+     *         {@code maxStaleness} and would no longer be served.
+     */
+    @NotNull Map<String, List<String>> snapshot() {
+        final Map<String, List<String>> rolesByKey = new HashMap<>();
+        final long nowNanos = System.nanoTime();
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach((key, entry) -> {
+                    final long lifetimeNanos = entry.roles.isEmpty() ? negativeTtlNanos : ttlNanos;
+                    if (nowNanos - entry.loadedNanos < lifetimeNanos + maxStalenessNanos) {
+                        rolesByKey.put(key, entry.roles);
+                    }
+                });
+            }
+        }
+        return rolesByKey;
+    }
+
+    /**
+     * Removes all entries and stops serving keys from the warm start snapshot.
+     */
+    void clear() {
+        warmStartSnapshot = null;
+        if (preloading) {
+            preloadCleared = true;
+        }
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+                stripe.loads.values().forEach(LoadVersion::increment);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry of the key, so the next lookup loads its roles.
+     */
+    void invalidate(final @NotNull String key) {
+        final Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.remove(key);
+            changed(stripe, key);
+        }
+        invalidateWarmStart(key);
+    }
+
+    /**
+     * Replaces the roles of the key if it is cached. Keys that are not cached are not added, so pushed updates do not
+     * fill the cache with keys that are not used on this node.
+     */
+    void update(final @NotNull String key, final @NotNull List<String> roles) {
+        final Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            changed(stripe, key);
+            if (stripe.containsKey(key)) {
+                stripe.put(key, new CacheEntry(roles, System.nanoTime()));
+                return;
+            }
+        }
+        invalidateWarmStart(key);
+    }
+
+    /**
+     * Starts a preload, see {@link #preload}.
+     */
+    void startPreload() {
+        preloadInvalidated.clear();
+        preloadCleared = false;
+        preloading = true;
+    }
+
+    /**
+     * Finishes the preload that was started with {@link #startPreload()}.
+     */
+    void finishPreload() {
+        preloading = false;
+        preloadInvalidated.clear();
+    }
+
+    /**
+     * Adds the roles of the key if it is not cached yet. Keys that are cached are not replaced, as their roles were
+     * loaded after the preloaded roles were read. Keys that were invalidated or updated since the preload was started
+     * are not added either, and nothing is added any more once the cache was cleared, as the roles of the preload may
+     * have been read before.
+     * <p>
+     * The load time of a preloaded entry is set back by a random part of the refresh-ahead window (at most half of
+     * the lifetime, or a tenth of it if there is no such window), so that the preloaded entries are refreshed and
+     * expire spread over this window instead of all at once.
+     */
+    void preload(final @NotNull String key, final @NotNull List<String> roles) {
+        final long lifetimeNanos = roles.isEmpty() ? negativeTtlNanos : ttlNanos;
+        final long spreadNanos = roles.isEmpty() || refreshAfterNanos == ttlNanos ?
+                lifetimeNanos / 10 :
+                Math.min(ttlNanos - refreshAfterNanos, ttlNanos / 2);
+        final long loadedNanos =
+                System.nanoTime() - (spreadNanos > 0 ? ThreadLocalRandom.current().nextLong(spreadNanos) : 0);
+        final Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            if (!preloadCleared && !preloadInvalidated.contains(key) && !stripe.containsKey(key)) {
+                stripe.put(key, new CacheEntry(roles, loadedNanos));
+            }
+        }
+    }
+
+    /**
+     * Prevents the loads and the preload of the key that are in progress from being cached, while holding the lock of
+     * its stripe.
+     */
+    private void changed(final @NotNull Stripe stripe, final @NotNull String key) {
+        stripe.changed(key);
+        if (preloading) {
+            preloadInvalidated.add(key);
+        }
+    }
+
+    private @Nullable CompletableFuture<List<String>> getWarmStart(final @NotNull String key) {
+        final RoleSnapshot snapshot = warmStartSnapshot;
+        if (snapshot == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= warmStartExpiryMillis) {
+            warmStartSnapshot = null;
+            warmStartInvalidated.clear();
+            return null;
+        }
+        final List<String> roles = snapshot.get(key);
+        if (roles == null || warmStartInvalidated.contains(key)) {
+            return null;
+        }
+        // the entry is due for a refresh right away, but is served until it expires or the refresh replaces it
+        final CacheEntry entry = put(key, roles, System.nanoTime() - refreshAfterNanos);
+        if (entry.refreshing.compareAndSet(false, true)) {
+            refresh(key, entry);
+        }
+        return entry.future;
+    }
+
+    private @NotNull CompletableFuture<List<String>> load(final @NotNull String key) {
+        final long version = startLoad(key);
+        return loader.apply(key).whenComplete((roles, throwable) -> finishLoad(key, version, roles));
+    }
+
+    /**
+     * Loads the roles of the key, but falls back to the roles of the expired entry if loading fails.
+     */
+    private @NotNull CompletableFuture<List<String>> loadOrStale(
+            final @NotNull String key,
+            final @NotNull CacheEntry staleEntry) {
+        final long version = startLoad(key);
+        return loader.apply(key).handle((roles, throwable) -> {
+            finishLoad(key, version, roles);
+            if (throwable == null) {
+                misses.inc();
+                return roles;
+            }
+            staleEntry.staleUntilNanos = System.nanoTime() + staleRetryNanos;
+            staleHits.inc();
+            return staleEntry.roles;
+        });
+    }
+
+    private void refresh(final @NotNull String key, final @NotNull CacheEntry entry) {
+        final long version = startLoad(key);
+        loader.apply(key).whenComplete((roles, throwable) -> {
+            if (!finishLoad(key, version, roles)) {
+                if (throwable != null) {
+                    // the next access does not try again before the retry interval passed
+                    entry.staleUntilNanos = System.nanoTime() + staleRetryNanos;
+                }
+                // keep serving the current entry until it expires
+                entry.refreshing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Registers a load of the key that is started now.
+     *
+     * @return the version of the key, which is passed to {@link #finishLoad} when the load is completed.
+     */
+    private long startLoad(final @NotNull String key) {
+        final Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            final LoadVersion loadVersion = stripe.loads.computeIfAbsent(key, k -> new LoadVersion());
+            loadVersion.loads++;
+            return loadVersion.version;
+        }
+    }
+
+    /**
+     * Caches the loaded roles of the key, unless the version of the key changed since the load was started.
+     *
+     * @param roles the loaded roles, or {@code null} if the load failed.
+     * @return {@code true} if the roles were cached.
+     */
+    private boolean finishLoad(final @NotNull String key, final long version, final @Nullable List<String> roles) {
+        final Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            final LoadVersion loadVersion = stripe.loads.get(key);
+            if (--loadVersion.loads == 0) {
+                stripe.loads.remove(key);
+            }
+            if (roles == null || loadVersion.version != version) {
+                return false;
+            }
+            stripe.put(key, new CacheEntry(roles, System.nanoTime()));
+            return true;
+        }
+    }
+
+    private @NotNull CacheEntry put(
+            final @NotNull String key,
+            final @NotNull List<String> roles,
+            final long loadedNanos) {
+        final Stripe stripe = stripeFor(key);
+        final CacheEntry entry = new CacheEntry(roles, loadedNanos);
+        synchronized (stripe) {
+            stripe.put(key, entry);
+        }
+        return entry;
+    }
+
+    private @NotNull Stripe stripeFor(final @NotNull String key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class CacheEntry {
+
+        final @NotNull List<String> roles;
+        final @NotNull CompletableFuture<List<String>> future;
+        final long loadedNanos;
+        final @NotNull AtomicBoolean refreshing = new AtomicBoolean();
+        /**
+         * Until when the roles are served without calling the loader, after loading or refreshing them failed.
+         */
+        volatile long staleUntilNanos;
+
+        CacheEntry(final @NotNull List<String> roles, final long loadedNanos) {
+            this.roles = roles;
+            this.future = CompletableFuture.completedFuture(roles);
+            this.loadedNanos = loadedNanos;
+            this.staleUntilNanos = loadedNanos;
+        }
+    }
+
+    private static final class Stripe extends LinkedHashMap<String, CacheEntry> {
+
+        private final int capacity;
+        /**
+         * The versions of the keys that are being loaded, only accessed while holding the lock of the stripe.
+         */
+        final transient @NotNull Map<String, LoadVersion> loads = new HashMap<>();
+
+        Stripe(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final @Nullable Map.Entry<String, CacheEntry> eldest) {
+            return size() > capacity;
+        }
+
+        /**
+         * Prevents the loads of the key that are in progress from being cached.
+         */
+        void changed(final @NotNull String key) {
+            final LoadVersion loadVersion = loads.get(key);
+            if (loadVersion != null) {
+                loadVersion.increment();
+            }
+        }
+    }
+
+    private static final class LoadVersion {
+
+        long version;
+        int loads;
+
+        void increment() {
+            version++;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects role lookups for a short window and resolves them with a single bulk request.
+ * <p>
+ * A batch is sent when the window of the first lookup in the batch has elapsed or when the batch reached its maximum
+ * size, whichever happens first. Keys that are missing in the bulk response, e.g. because it was truncated, fail like
+ * a failed request, so they are neither mistaken for keys without roles nor cached as such. Keys without roles have
+ * to be listed in the bulk response with an empty role list.
+ *
+ * @since 4.36.0
+ */
+class RoleLookupBatcher {
+
+    private final @NotNull Function<List<String>, CompletableFuture<Map<String, List<String>>>> batchLoader;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final @NotNull ScheduledExecutorService scheduler;
+
+    private @NotNull Map<String, CompletableFuture<List<String>>> batch = new LinkedHashMap<>();
+
+    RoleLookupBatcher(
+            final int maxBatchSize,
+            final @NotNull Duration window,
+            final @NotNull Function<List<String>, CompletableFuture<Map<String, List<String>>>> batchLoader) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive, but was " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = window.toNanos();
+        this.batchLoader = batchLoader;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "external-roles-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds the key to the current batch.
+     *
+     * @param key the authorization key.
+     * @return a future that completes with the external roles of the key when the batch was resolved.
+     */
+    @NotNull CompletableFuture<List<String>> get(final @NotNull String key) {
+        final CompletableFuture<List<String>> future;
+        Map<String, CompletableFuture<List<String>>> full = null;
+        synchronized (this) {
+            final CompletableFuture<List<String>> pending = batch.get(key);
+            if (pending != null) {
+                return pending;
+            }
+            future = new CompletableFuture<>();
+            batch.put(key, future);
+            if (batch.size() >= maxBatchSize) {
+                full = batch;
+                batch = new LinkedHashMap<>();
+            } else if (batch.size() == 1) {
+                final Map<String, CompletableFuture<List<String>>> scheduled = batch;
+                scheduler.schedule(() -> flush(scheduled), windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the pending batch and stops the scheduler.
+     */
+    void shutdown() {
+        final Map<String, CompletableFuture<List<String>>> pending;
+        synchronized (this) {
+            pending = batch;
+            batch = new LinkedHashMap<>();
+        }
+        if (!pending.isEmpty()) {
+            send(pending);
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void flush(final @NotNull Map<String, CompletableFuture<List<String>>> scheduled) {
+        synchronized (this) {
+            // the batch was already sent because it reached the maximum size
+            if (batch != scheduled) {
+                return;
+            }
+            batch = new LinkedHashMap<>();
+        }
+        send(scheduled);
+    }
+
+    private void send(final @NotNull Map<String, CompletableFuture<List<String>>> pending) {
+        final CompletableFuture<Map<String, List<String>>> response;
+        try {
+            response = batchLoader.apply(new ArrayList<>(pending.keySet()));
+        } catch (final RuntimeException e) {
+            pending.values().forEach(future -> future.completeExceptionally(e));
+            return;
+        }
+        response.whenComplete((rolesByKey, throwable) -> pending.forEach((key, future) -> {
+            if (throwable == null) {
+                final @Nullable List<String> roles = rolesByKey.get(key);
+                if (roles != null) {
+                    future.complete(roles);
+                } else {
+                    future.completeExceptionally(new IOException("roles of " + key + " are missing in the response"));
+                }
+            } else {
+                future.completeExceptionally(throwable);
+            }
+        }));
+    }
+}
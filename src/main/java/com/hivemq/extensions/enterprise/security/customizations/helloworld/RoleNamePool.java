@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A bounded pool of canonical role name instances, looked up by their UTF-8 bytes.
+ * <p>
+ * Looking up a role name that is already pooled does not allocate, so the role lists of all sessions share the same
+ * string instances. The role names are held in a {@link CanonicalTable}, so lookups are lock-free and only adding a
+ * role name is synchronized. When the pool is full, role names are no longer pooled, so a misbehaving endpoint cannot
+ * grow it without limit. This is logged once as a warning, as the pool is never evicted and {@code rolesMaxRoleNames}
+ * should then be increased.
+ *
+ * @since 4.36.0
+ */
+class RoleNamePool {
+
+    private static final @NotNull Logger LOGGER = LoggerFactory.getLogger(RoleNamePool.class);
+
+    private final @NotNull CanonicalTable<byte[], Void, PooledName> names;
+
+    RoleNamePool(final int maxEntries) {
+        names = new CanonicalTable<>(maxEntries,
+                LOGGER,
+                "ROLE NAME POOL FULL: {} role names are pooled, further role names are not shared, " +
+                        "consider increasing rolesMaxRoleNames");
+    }
+
+    /**
+     * @return the canonical role name for the UTF-8 bytes in the range {@code [from, to)}.
+     */
+    @NotNull String intern(final byte @NotNull [] bytes, final int from, final int to) {
+        final int hash = hash(bytes, from, to);
+        final PooledName pooled = names.find(hash, bytes, null, from, to);
+        if (pooled != null) {
+            return pooled.name;
+        }
+        final String name = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        return names.add(new PooledName(Arrays.copyOfRange(bytes, from, to), name, hash), bytes, null, from, to).name;
+    }
+
+    /**
+     * @return the canonical instance of the role name.
+     */
+    @NotNull String intern(final @NotNull String name) {
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        return intern(bytes, 0, bytes.length);
+    }
+
+    private static int hash(final byte @NotNull [] bytes, final int from, final int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class PooledName extends CanonicalTable.Entry<byte[], Void> {
+
+        final byte @NotNull [] utf8;
+        final @NotNull String name;
+
+        PooledName(final byte @NotNull [] utf8, final @NotNull String name, final int hash) {
+            super(hash);
+            this.utf8 = utf8;
+            this.name = name;
+        }
+
+        @Override
+        boolean matches(final byte @NotNull [] bytes, final @Nullable Void unused, final int from, final int to) {
+            return Arrays.equals(utf8, 0, utf8.length, bytes, from, to);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Deduplicates concurrent role lookups for the same key.
+ * <p>
+ * The first lookup for a key starts the request, every further lookup for the same key attaches to the pending future
+ * until it completes. The key is removed before the shared future completes, so lookups that start afterward send a
+ * new request. A pending lookup can be detached when the roles of its key changed while it was in flight, so later
+ * lookups do not attach to a response that may contain the previous roles.
+ *
+ * @since 4.36.0
+ */
+class RoleRequestCoalescer {
+
+    private final @NotNull ConcurrentHashMap<String, CompletableFuture<List<String>>> inFlight =
+            new ConcurrentHashMap<>();
+    private final @NotNull Function<String, CompletableFuture<List<String>>> loader;
+
+    RoleRequestCoalescer(final @NotNull Function<String, CompletableFuture<List<String>>> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the pending lookup for the key, or starts a new one if there is none.
+     *
+     * @param key the authorization key.
+     * @return a future that completes with the external roles of the key.
+     */
+    @NotNull CompletableFuture<List<String>> get(final @NotNull String key) {
+        final CompletableFuture<List<String>> pending = inFlight.get(key);
+        if (pending != null) {
+            return pending;
+        }
+        final CompletableFuture<List<String>> future = new CompletableFuture<>();
+        final CompletableFuture<List<String>> raced = inFlight.putIfAbsent(key, future);
+        if (raced != null) {
+            return raced;
+        }
+        try {
+            loader.apply(key).whenComplete((roles, throwable) -> {
+                inFlight.remove(key, future);
+                if (throwable == null) {
+                    future.complete(roles);
+                } else {
+                    future.completeExceptionally(throwable);
+                }
+            });
+        } catch (final RuntimeException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Detaches the pending lookup for the key, so lookups that start afterward send a new request.
+     */
+    void detach(final @NotNull String key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * Detaches the pending lookups for all keys.
+     */
+    void detachAll() {
+        inFlight.clear();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact file with the role mappings of the role cache, so a restarted node can serve authorizations from stale
+ * but usable roles while they are revalidated.
+ * <p>
+ * The file consists of a header, a dictionary of the distinct role names, a table of entry offsets sorted by the UTF-8
+ * bytes of the authorization keys, and the entries. Each entry holds the authorization key and the dictionary indexes
+ * of its roles. The file is memory-mapped when it is read and an entry is only decoded when its authorization key is
+ * looked up with a binary search. The structure of the file is validated once when it is read, so a damaged file is
+ * rejected instead of failing the lookups.
+ *
+ * @since 4.36.0
+ */
+class RoleSnapshot {
+
+    private static final int MAGIC = 0x524F4C45; // "ROLE"
+    private static final int VERSION = 1;
+
+    private final @NotNull MappedByteBuffer buffer;
+    private final @NotNull String @NotNull [] roleNames;
+    private final int entryCount;
+    private final int offsetsPosition;
+    private final long writtenAtMillis;
+
+    private RoleSnapshot(
+            final @NotNull MappedByteBuffer buffer,
+            final @NotNull String @NotNull [] roleNames,
+            final int entryCount,
+            final int offsetsPosition,
+            final long writtenAtMillis) {
+        this.buffer = buffer;
+        this.roleNames = roleNames;
+        this.entryCount = entryCount;
+        this.offsetsPosition = offsetsPosition;
+        this.writtenAtMillis = writtenAtMillis;
+    }
+
+    /**
+     * Writes the role mappings to a temporary file that atomically replaces the file at the path.
+     */
+    static void write(final @NotNull Path path, final @NotNull Map<String, List<String>> rolesByKey)
+            throws IOException {
+        final Map<String, Integer> roleIds = new HashMap<>();
+        final SnapshotEntry[] entries = new SnapshotEntry[rolesByKey.size()];
+        int entryCount = 0;
+        for (final Map.Entry<String, List<String>> entry : rolesByKey.entrySet()) {
+            entries[entryCount++] =
+                    new SnapshotEntry(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue());
+            for (final String role : entry.getValue()) {
+                roleIds.putIfAbsent(role, roleIds.size());
+            }
+        }
+        Arrays.sort(entries, (entry1, entry2) -> Arrays.compareUnsigned(entry1.key, entry2.key));
+        final String[] roleNames = new String[roleIds.size()];
+        roleIds.forEach((role, id) -> roleNames[id] = role);
+
+        final Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream( //
+                new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(roleNames.length);
+            for (final String roleName : roleNames) {
+                final byte[] bytes = roleName.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(entries.length);
+            int offset = out.size() + entries.length * Integer.BYTES;
+            for (final SnapshotEntry entry : entries) {
+                out.writeInt(offset);
+                offset += Integer.BYTES + entry.key.length + Integer.BYTES + entry.roles.size() * Integer.BYTES;
+            }
+            for (final SnapshotEntry entry : entries) {
+                out.writeInt(entry.key.length);
+                out.write(entry.key);
+                out.writeInt(entry.roles.size());
+                for (final String role : entry.roles) {
+                    out.writeInt(roleIds.get(role));
+                }
+            }
+        }
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Memory-maps the file at the path. Only the role name dictionary is decoded eagerly, the offsets and entries are
+     * only checked to be within the file and sorted.
+     *
+     * @return the snapshot, or {@code null} if there is no file at the path.
+     * @throws IOException if the file can not be read or is damaged.
+     */
+    static @Nullable RoleSnapshot read(final @NotNull Path path, final @NotNull RoleNamePool roleNamePool)
+            throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < 24 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported role snapshot file " + path);
+        }
+        final long writtenAtMillis = buffer.getLong(8);
+        final int roleNameCount = buffer.getInt(16);
+        // each role name takes at least its length, which also bounds the array allocated for a damaged count
+        if (roleNameCount < 0 || roleNameCount > (buffer.capacity() - 20) / Integer.BYTES) {
+            throw damaged(path);
+        }
+        final String[] roleNames = new String[roleNameCount];
+        int position = 20;
+        final byte[] roleName = new byte[256];
+        for (int i = 0; i < roleNames.length; i++) {
+            final int length = buffer.getInt(position);
+            position += Integer.BYTES;
+            if (length < 0 || length > buffer.capacity() - position - Integer.BYTES) {
+                throw damaged(path);
+            }
+            final byte[] bytes = length <= roleName.length ? roleName : new byte[length];
+            buffer.duplicate().position(position).get(bytes, 0, length);
+            roleNames[i] = roleNamePool.intern(bytes, 0, length);
+            position += length;
+        }
+        final int entryCount = buffer.getInt(position);
+        final int offsetsPosition = position + Integer.BYTES;
+        if (entryCount < 0 || entryCount > (buffer.capacity() - offsetsPosition) / Integer.BYTES) {
+            throw damaged(path);
+        }
+        final RoleSnapshot snapshot =
+                new RoleSnapshot(buffer, roleNames, entryCount, offsetsPosition, writtenAtMillis);
+        if (!snapshot.isValid()) {
+            throw damaged(path);
+        }
+        return snapshot;
+    }
+
+    private static @NotNull IOException damaged(final @NotNull Path path) {
+        return new IOException("Damaged role snapshot file " + path);
+    }
+
+    /**
+     * @return {@code true} if all entries are within the file and reference known role names, and the authorization
+     *         keys are sorted, so {@link #get} can not fail or miss an entry.
+     */
+    private boolean isValid() {
+        final long entriesPosition = offsetsPosition + (long) entryCount * Integer.BYTES;
+        int previousOffset = -1;
+        for (int i = 0; i < entryCount; i++) {
+            final int offset = buffer.getInt(offsetsPosition + i * Integer.BYTES);
+            if (offset < entriesPosition || offset > buffer.capacity() - 2L * Integer.BYTES) {
+                return false;
+            }
+            final int keyLength = buffer.getInt(offset);
+            final long rolesPosition = (long) offset + Integer.BYTES + keyLength;
+            if (keyLength < 0 || rolesPosition > buffer.capacity() - Integer.BYTES) {
+                return false;
+            }
+            final int roleCount = buffer.getInt((int) rolesPosition);
+            if (roleCount < 0 ||
+                    roleCount > (buffer.capacity() - rolesPosition - Integer.BYTES) / Integer.BYTES) {
+                return false;
+            }
+            for (int role = 0; role < roleCount; role++) {
+                final int roleId = buffer.getInt((int) rolesPosition + Integer.BYTES + role * Integer.BYTES);
+                if (roleId < 0 || roleId >= roleNames.length) {
+                    return false;
+                }
+            }
+            if (previousOffset >= 0 && compareKeys(previousOffset, offset) >= 0) {
+                return false;
+            }
+            previousOffset = offset;
+        }
+        return true;
+    }
+
+    /**
+     * @return the roles of the authorization key, or {@code null} if the snapshot has no entry for it.
+     */
+    @Nullable List<String> get(final @NotNull String key) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int offset = buffer.getInt(offsetsPosition + middle * Integer.BYTES);
+            final int comparison = compareKey(offset, keyBytes);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return decodeRoles(offset + Integer.BYTES + keyBytes.length);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the epoch milliseconds when the snapshot was written.
+     */
+    long writtenAtMillis() {
+        return writtenAtMillis;
+    }
+
+    int size() {
+        return entryCount;
+    }
+
+    private int compareKey(final int offset, final byte @NotNull [] keyBytes) {
+        final int length = buffer.getInt(offset);
+        final int position = offset + Integer.BYTES;
+        final int commonLength = Math.min(length, keyBytes.length);
+        for (int i = 0; i < commonLength; i++) {
+            final int comparison = Byte.compareUnsigned(buffer.get(position + i), keyBytes[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, keyBytes.length);
+    }
+
+    private int compareKeys(final int offset1, final int offset2) {
+        final int length1 = buffer.getInt(offset1);
+        final int length2 = buffer.getInt(offset2);
+        final int commonLength = Math.min(length1, length2);
+        for (int i = 0; i < commonLength; i++) {
+            final int comparison = Byte.compareUnsigned(buffer.get(offset1 + Integer.BYTES + i),
+                    buffer.get(offset2 + Integer.BYTES + i));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length1, length2);
+    }
+
+    private @NotNull List<String> decodeRoles(final int position) {
+        final int roleCount = buffer.getInt(position);
+        final String[] roles = new String[roleCount];
+        for (int i = 0; i < roleCount; i++) {
+            roles[i] = roleNames[buffer.getInt(position + Integer.BYTES + i * Integer.BYTES)];
+        }
+        return List.of(roles);
+    }
+
+    private static final class SnapshotEntry {
+
+        final byte @NotNull [] key;
+        final @NotNull List<String> roles;
+
+        SnapshotEntry(final byte @NotNull [] key, final @NotNull List<String> roles) {
+            this.key = key;
+            this.roles = roles;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.Histogram;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Parses a roles response body while it is received, without buffering it as a string.
+ * <p>
+ * The body is split into segments at a delimiter byte. The role names are trimmed, empty role names are skipped,
+ * duplicates are removed and each role name is replaced by its canonical instance from the {@link RoleNamePool}. A body
+ * that exceeds the maximum size cancels the response and fails with an {@link IOException}. The size of each complete
+ * body is recorded in a histogram.
+ *
+ * @since 4.36.0
+ */
+abstract class RolesBodySubscriber<T> implements HttpResponse.BodySubscriber<T> {
+
+    private static final int DEDUPLICATE_WITH_SET_THRESHOLD = 16;
+
+    private final @NotNull CompletableFuture<T> body = new CompletableFuture<>();
+    private final @NotNull RoleNamePool roleNamePool;
+    private final long maxBytes;
+    private final @NotNull Histogram responseSizes;
+    private final byte delimiter;
+    private byte @NotNull [] segment = new byte[64];
+    private int segmentLength;
+    private long receivedBytes;
+    private @Nullable Flow.Subscription subscription;
+
+    /**
+     * @return a subscriber for a body in the format {@code <role>,<role>,...}.
+     */
+    static @NotNull HttpResponse.BodySubscriber<List<String>> roles(
+            final @NotNull RoleNamePool roleNamePool,
+            final long maxBytes,
+            final @NotNull Histogram responseSizes) {
+        return new RolesBodySubscriber<>(roleNamePool, maxBytes, responseSizes, (byte) ',') {
+
+            private @NotNull String @NotNull [] roles = new String[8];
+            private int rolesCount;
+
+            @Override
+            void onSegment(final byte @NotNull [] segment, final int length) {
+                if (rolesCount == roles.length) {
+                    roles = Arrays.copyOf(roles, roles.length * 2);
+                }
+                rolesCount = addRole(roles, rolesCount, segment, 0, length);
+            }
+
+            @Override
+            @NotNull List<String> result() {
+                return deduplicate(roles, rolesCount);
+            }
+        };
+    }
+
+    /**
+     * @return a subscriber for a body with one line per user in the format {@code <user>=<role>,<role>,...}.
+     */
+    static @NotNull HttpResponse.BodySubscriber<Map<String, List<String>>> rolesByUser(
+            final @NotNull RoleNamePool roleNamePool,
+            final long maxBytes,
+            final @NotNull Histogram responseSizes) {
+        return new RolesBodySubscriber<>(roleNamePool, maxBytes, responseSizes, (byte) '\n') {
+
+            private final @NotNull Map<String, List<String>> rolesByUser = new HashMap<>();
+
+            @Override
+            void onSegment(final byte @NotNull [] segment, final int length) {
+                int separator = length - 1;
+                while (separator >= 0 && segment[separator] != '=') {
+                    separator--;
+                }
+                if (separator <= 0) {
+                    return;
+                }
+                String[] roles = new String[8];
+                int rolesCount = 0;
+                int start = separator + 1;
+                for (int i = start; i <= length; i++) {
+                    if (i == length || segment[i] == ',') {
+                        if (rolesCount == roles.length) {
+                            roles = Arrays.copyOf(roles, roles.length * 2);
+                        }
+                        rolesCount = addRole(roles, rolesCount, segment, start, i);
+                        start = i + 1;
+                    }
+                }
+                rolesByUser.put(new String(segment, 0, separator, StandardCharsets.UTF_8),
+                        deduplicate(roles, rolesCount));
+            }
+
+            @Override
+            @NotNull Map<String, List<String>> result() {
+                return rolesByUser;
+            }
+        };
+    }
+
+    private RolesBodySubscriber(
+            final @NotNull RoleNamePool roleNamePool,
+            final long maxBytes,
+            final @NotNull Histogram responseSizes,
+            final byte delimiter) {
+        this.roleNamePool = roleNamePool;
+        this.maxBytes = maxBytes;
+        this.responseSizes = responseSizes;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Called for each segment of the body between delimiters.
+     */
+    abstract void onSegment(byte @NotNull [] segment, int length);
+
+    abstract @NotNull T result();
+
+    @Override
+    public @NotNull CompletionStage<T> getBody() {
+        return body;
+    }
+
+    @Override
+    public void onSubscribe(final @NotNull Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(final @NotNull List<ByteBuffer> items) {
+        if (body.isDone()) {
+            return;
+        }
+        for (final ByteBuffer item : items) {
+            receivedBytes += item.remaining();
+            if (receivedBytes > maxBytes) {
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                body.completeExceptionally(new IOException("roles response exceeds " + maxBytes + " bytes"));
+                return;
+            }
+            while (item.hasRemaining()) {
+                final byte b = item.get();
+                if (b == delimiter) {
+                    onSegment(segment, segmentLength);
+                    segmentLength = 0;
+                } else {
+                    if (segmentLength == segment.length) {
+                        segment = Arrays.copyOf(segment, segment.length * 2);
+                    }
+                    segment[segmentLength++] = b;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onError(final @NotNull Throwable throwable) {
+        body.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (body.isDone()) {
+            return;
+        }
+        responseSizes.update(receivedBytes);
+        try {
+            if (segmentLength > 0) {
+                onSegment(segment, segmentLength);
+            }
+            body.complete(result());
+        } catch (final RuntimeException e) {
+            body.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Adds the trimmed role name in the range {@code [from, to)} of the bytes, unless it is empty.
+     *
+     * @return the new number of roles.
+     */
+    final int addRole(
+            final @NotNull String @NotNull [] roles,
+            final int rolesCount,
+            final byte @NotNull [] bytes,
+            int from,
+            int to) {
+        while (from < to && (bytes[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (bytes[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return rolesCount;
+        }
+        roles[rolesCount] = roleNamePool.intern(bytes, from, to);
+        return rolesCount + 1;
+    }
+
+    /**
+     * Parses roles in the format {@code <role>,<role>,...} the same way as a response body.
+     *
+     * @return an immutable list of the distinct, trimmed and pooled roles.
+     */
+    static @NotNull List<String> parse(final @NotNull String roles, final @NotNull RoleNamePool roleNamePool) {
+        final String[] parsed = roles.split(",");
+        int rolesCount = 0;
+        for (final String role : parsed) {
+            final String trimmed = role.trim();
+            if (!trimmed.isEmpty()) {
+                parsed[rolesCount++] = roleNamePool.intern(trimmed);
+            }
+        }
+        return deduplicate(parsed, rolesCount);
+    }
+
+    /**
+     * @return an immutable list of the distinct roles in their original order.
+     */
+    static @NotNull List<String> deduplicate(final @NotNull String @NotNull [] roles, final int rolesCount) {
+        int distinctCount = 0;
+        if (rolesCount <= DEDUPLICATE_WITH_SET_THRESHOLD) {
+            outer:
+            for (int i = 0; i < rolesCount; i++) {
+                for (int j = 0; j < distinctCount; j++) {
+                    if (roles[j].equals(roles[i])) {
+                        continue outer;
+                    }
+                }
+                roles[distinctCount++] = roles[i];
+            }
+        } else {
+            final Set<String> seen = new HashSet<>();
+            for (int i = 0; i < rolesCount; i++) {
+                if (seen.add(roles[i])) {
+                    roles[distinctCount++] = roles[i];
+                }
+            }
+        }
+        if (distinctCount == 0) {
+            return List.of();
+        }
+        return List.of(distinctCount == roles.length ? roles : Arrays.copyOf(roles, distinctCount));
+    }
+}
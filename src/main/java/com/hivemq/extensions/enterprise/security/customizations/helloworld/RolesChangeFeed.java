@@ -0,0 +1,299 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Applies role changes that are pushed by the roles service as Server-Sent Events to the {@link RoleCache}. Pending
+ * lookups of changed keys are detached from the {@link RoleRequestCoalescer}, so later lookups do not attach to a
+ * request that was sent before the change.
+ * <p>
+ * The following events are supported:
+ * <ul>
+ *     <li>{@code invalidate} with the authorization key as data: removes the key from the cache.</li>
+ *     <li>{@code update} with data in the format {@code <user>=<role>,<role>,...}: replaces the roles of a cached key.
+ *     </li>
+ *     <li>{@code reset}: removes all keys from the cache.</li>
+ * </ul>
+ * The stream is read by a single daemon thread. When the stream ends or fails, the thread reconnects with exponential
+ * backoff and jitter, and sends the id of the last received event as {@code Last-Event-ID} header, so the roles service
+ * can resume the feed. The cache is cleared when the feed reconnects without a last event id, as changes may have been
+ * missed in the meantime. The {@code retry} field of the server is limited to the maximum backoff.
+ * <p>
+ * With an idle timeout, the stream is closed and reconnected when no line was received within the idle timeout, so a
+ * connection that silently stopped delivering events is detected. The roles service is then expected to send events or
+ * comment lines as heartbeats more often than the idle timeout.
+ *
+ * @since 4.36.0
+ */
+class RolesChangeFeed {
+
+    private static final @NotNull Logger LOGGER = LoggerFactory.getLogger(RolesChangeFeed.class);
+    private static final long INITIAL_BACKOFF_MILLIS = 1_000;
+
+    private final @NotNull URI changeFeedEndpoint;
+    private final @NotNull RoleCache roleCache;
+    private final @NotNull RoleRequestCoalescer coalescer;
+    private final @NotNull RoleNamePool roleNamePool;
+    private final long maxBackoffMillis;
+    private final @NotNull Duration idleTimeout;
+    private final @NotNull HttpClient httpClient;
+    private final @NotNull Thread thread;
+    private final @Nullable ScheduledExecutorService watchdog;
+
+    private volatile boolean closed;
+    private volatile @Nullable Stream<String> lines;
+    private volatile long lastLineNanos;
+    private @Nullable String lastEventId;
+    private boolean connected;
+    private long retryMillis = INITIAL_BACKOFF_MILLIS;
+
+    RolesChangeFeed(
+            final @NotNull URI changeFeedEndpoint,
+            final @NotNull RoleCache roleCache,
+            final @NotNull RoleRequestCoalescer coalescer,
+            final @NotNull RoleNamePool roleNamePool,
+            final @NotNull Duration connectTimeout,
+            final @NotNull Duration maxBackoff,
+            final @NotNull Duration idleTimeout) {
+        if (idleTimeout.isNegative()) {
+            throw new IllegalArgumentException("idleTimeout must not be negative, but was " + idleTimeout);
+        }
+        this.changeFeedEndpoint = changeFeedEndpoint;
+        this.roleCache = roleCache;
+        this.coalescer = coalescer;
+        this.roleNamePool = roleNamePool;
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.idleTimeout = idleTimeout;
+        httpClient = HttpClient.newBuilder().connectTimeout(connectTimeout).build();
+        thread = new Thread(this::run, "external-roles-change-feed");
+        thread.setDaemon(true);
+        if (idleTimeout.isZero()) {
+            watchdog = null;
+        } else {
+            watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread watchdogThread = new Thread(runnable, "external-roles-change-feed-watchdog");
+                watchdogThread.setDaemon(true);
+                return watchdogThread;
+            });
+        }
+    }
+
+    void start() {
+        thread.start();
+        final ScheduledExecutorService watchdog = this.watchdog;
+        if (watchdog != null) {
+            final long checkIntervalMillis = Math.max(1, idleTimeout.toMillis() / 4);
+            watchdog.scheduleWithFixedDelay(this::closeIfIdle,
+                    checkIntervalMillis,
+                    checkIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void shutdown() {
+        closed = true;
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+        final Stream<String> lines = this.lines;
+        if (lines != null) {
+            lines.close();
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        while (!closed) {
+            boolean received = false;
+            try {
+                received = consume();
+            } catch (final InterruptedException e) {
+                return;
+            } catch (final IOException | RuntimeException e) {
+                if (closed) {
+                    return;
+                }
+                LOGGER.warn("CHANGE FEED FAILED: {}", e.toString());
+            }
+            // reconnect after the retry delay of the server, but back off exponentially while the feed keeps failing
+            final long delayMillis;
+            if (received) {
+                delayMillis = retryMillis;
+                backoffMillis = INITIAL_BACKOFF_MILLIS;
+            } else {
+                delayMillis = Math.max(retryMillis, backoffMillis);
+                backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+            }
+            try {
+                Thread.sleep(delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1));
+            } catch (final InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes the stream if no line was received within the idle timeout, so the feed thread reconnects.
+     */
+    private void closeIfIdle() {
+        final Stream<String> lines = this.lines;
+        if (lines != null && System.nanoTime() - lastLineNanos >= idleTimeout.toNanos()) {
+            LOGGER.warn("CHANGE FEED IDLE: no line received for {}, reconnecting", idleTimeout);
+            lines.close();
+        }
+    }
+
+    /**
+     * Reads the stream until it ends.
+     *
+     * @return {@code true} if at least one event was received.
+     */
+    private boolean consume() throws IOException, InterruptedException {
+        final HttpRequest.Builder request =
+                HttpRequest.newBuilder(changeFeedEndpoint).header("Accept", "text/event-stream");
+        final String lastEventId = this.lastEventId;
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", lastEventId);
+        }
+        if (watchdog != null) {
+            // the watchdog only covers the body, the request timeout covers waiting for the response headers
+            request.timeout(idleTimeout);
+        }
+        LOGGER.debug("CHANGE FEED CONNECT: {}, last event id {}", changeFeedEndpoint, lastEventId);
+        final HttpResponse<Stream<String>> response =
+                httpClient.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+        try (final Stream<String> lines = response.body()) {
+            lastLineNanos = System.nanoTime();
+            this.lines = lines;
+            if (closed) {
+                return false;
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException("change feed responded with status " + response.statusCode());
+            }
+            if (connected && lastEventId == null) {
+                // changes may have been missed while the feed was not connected
+                coalescer.detachAll();
+                roleCache.clear();
+            }
+            connected = true;
+            boolean received = false;
+            String event = "message";
+            final StringBuilder data = new StringBuilder();
+            String id = null;
+            final Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                final String line = iterator.next();
+                lastLineNanos = System.nanoTime();
+                if (line.isEmpty()) {
+                    if (data.length() > 0 || !event.equals("message")) {
+                        apply(event, data.toString());
+                        received = true;
+                    }
+                    if (id != null) {
+                        this.lastEventId = id;
+                    }
+                    event = "message";
+                    data.setLength(0);
+                    id = null;
+                    continue;
+                }
+                if (line.charAt(0) == ':') {
+                    continue;
+                }
+                final int colon = line.indexOf(':');
+                final String field = colon < 0 ? line : line.substring(0, colon);
+                String value = colon < 0 ? "" : line.substring(colon + 1);
+                if (value.startsWith(" ")) {
+                    value = value.substring(1);
+                }
+                switch (field) {
+                    case "event":
+                        event = value;
+                        break;
+                    case "data":
+                        if (data.length() > 0) {
+                            data.append('\n');
+                        }
+                        data.append(value);
+                        break;
+                    case "id":
+                        id = value;
+                        break;
+                    case "retry":
+                        try {
+                            retryMillis = Math.max(0, Math.min(Long.parseLong(value), maxBackoffMillis));
+                        } catch (final NumberFormatException ignored) {
+                        }
+                        break;
+                    default:
+                }
+            }
+            return received;
+        } finally {
+            this.lines = null;
+        }
+    }
+
+    private void apply(final @NotNull String event, final @NotNull String data) {
+        switch (event) {
+            case "invalidate":
+                LOGGER.debug("CHANGE FEED INVALIDATE: {}", data);
+                coalescer.detach(data.trim());
+                roleCache.invalidate(data.trim());
+                break;
+            case "update":
+                final int separator = data.lastIndexOf('=');
+                if (separator <= 0) {
+                    LOGGER.warn("CHANGE FEED INVALID UPDATE: {}", data);
+                    return;
+                }
+                final String key = data.substring(0, separator).trim();
+                final List<String> roles = RolesBodySubscriber.parse(data.substring(separator + 1), roleNamePool);
+                LOGGER.debug("CHANGE FEED UPDATE: {} {}", key, roles);
+                coalescer.detach(key);
+                roleCache.update(key, roles);
+                break;
+            case "reset":
+                LOGGER.debug("CHANGE FEED RESET");
+                coalescer.detachAll();
+                roleCache.clear();
+                break;
+            default:
+                LOGGER.debug("CHANGE FEED IGNORED EVENT: {}", event);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Sends the requests to the roles endpoints.
+ * <p>
+ * Each request is sent to the endpoint with the least outstanding requests whose circuit breaker (if configured) is
+ * closed. The number of concurrent requests is limited by a bulkhead. Requests that are rejected because of the
+ * bulkhead or because all circuit breakers are open fail immediately with a {@link RolesUnavailableException} instead
+ * of waiting for the request timeout. Only the bodies of responses with a 2xx status are parsed, by a
+ * {@link RolesBodySubscriber} while they are received. Responses with any other status fail with a
+ * {@link RolesEndpointStatusException}. Server errors (5xx) and {@code 429 Too Many Requests} count as failures of the
+ * endpoint for its circuit breaker. Other statuses, e.g. {@code 404} for a misconfigured path, are answered by a
+ * healthy endpoint and would fail on every replica alike, so they do not open the circuit breaker.
+ * <p>
+ * With hedging enabled, a second request is sent to another endpoint when the first one has not completed after the
+ * tracked latency percentile. The first successful response is used and the other request is cancelled.
+ * <p>
+ * The round-trip time of successful requests, the requests in flight, the timed out, failed and rejected requests and
+ * the response sizes are recorded in the {@link MetricRegistry}.
+ *
+ * @since 4.36.0
+ */
+class RolesEndpointClient {
+
+    private static final @NotNull Logger LOGGER = LoggerFactory.getLogger(RolesEndpointClient.class);
+
+    private final @NotNull Endpoint @NotNull [] endpoints;
+    private final @NotNull Duration requestTimeout;
+    private final @Nullable Semaphore bulkhead;
+    private final @Nullable LatencyTracker hedgeLatencyTracker;
+    private final long hedgeMinDelayNanos;
+    private final @NotNull RoleNamePool roleNamePool;
+    private final long maxResponseBytes;
+    private final @NotNull AtomicInteger nextEndpoint = new AtomicInteger();
+    private final @NotNull ExecutorService executor;
+    private final @NotNull HttpClient httpClient;
+    private final @NotNull Timer requestTimer;
+    private final @NotNull Counter requestsInFlight;
+    private final @NotNull Counter requestTimeouts;
+    private final @NotNull Counter requestFailures;
+    private final @NotNull Counter requestsRejected;
+    private final @NotNull Histogram responseSizes;
+
+    /**
+     * @param rolesEndpoints                 the roles endpoints.
+     * @param connectTimeout                 the connect timeout.
+     * @param requestTimeout                 the request timeout.
+     * @param maxInFlight                    the maximum number of concurrent requests, {@code 0} for no limit.
+     * @param circuitBreakerFailureThreshold the consecutive failures that open the circuit breaker of an endpoint,
+     *                                       {@code 0} to disable the circuit breakers.
+     * @param circuitBreakerOpenDuration     how long a circuit breaker stays open.
+     * @param hedgePercentile                the latency percentile after which a hedged request is sent, {@code 0}
+     *                                       to disable hedging.
+     * @param hedgeMinDelay                  the minimum delay before a hedged request is sent.
+     * @param roleNamePool                   the pool for the canonical role name instances.
+     * @param maxResponseBytes               the maximum size of a response body per authorization key.
+     * @param metricRegistry                 the registry for the request metrics.
+     */
+    RolesEndpointClient(
+            final @NotNull List<URI> rolesEndpoints,
+            final @NotNull Duration connectTimeout,
+            final @NotNull Duration requestTimeout,
+            final int maxInFlight,
+            final int circuitBreakerFailureThreshold,
+            final @NotNull Duration circuitBreakerOpenDuration,
+            final double hedgePercentile,
+            final @NotNull Duration hedgeMinDelay,
+            final @NotNull RoleNamePool roleNamePool,
+            final long maxResponseBytes,
+            final @NotNull MetricRegistry metricRegistry) {
+        if (rolesEndpoints.isEmpty()) {
+            throw new IllegalArgumentException("at least one roles endpoint is required");
+        }
+        endpoints = new Endpoint[rolesEndpoints.size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new Endpoint(rolesEndpoints.get(i),
+                    circuitBreakerFailureThreshold > 0 ?
+                            new CircuitBreaker(circuitBreakerFailureThreshold, circuitBreakerOpenDuration) :
+                            null);
+        }
+        this.requestTimeout = requestTimeout;
+        bulkhead = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        hedgeLatencyTracker = hedgePercentile > 0 && endpoints.length > 1 ? new LatencyTracker(hedgePercentile) : null;
+        hedgeMinDelayNanos = hedgeMinDelay.toNanos();
+        this.roleNamePool = roleNamePool;
+        this.maxResponseBytes = maxResponseBytes;
+        executor = newExecutor();
+        httpClient = HttpClient.newBuilder().connectTimeout(connectTimeout).executor(executor).build();
+        requestTimer = PreprocessorMetrics.timer(metricRegistry,
+                MetricRegistry.name(ExternalRolesCommonPreprocessor.class, "roles", "request", "time"));
+        requestsInFlight = metricRegistry.counter(MetricRegistry.name(ExternalRolesCommonPreprocessor.class,
+                "roles",
+                "request",
+                "in-flight"));
+        requestTimeouts = metricRegistry.counter(MetricRegistry.name(ExternalRolesCommonPreprocessor.class,
+                "roles",
+                "request",
+                "timeout",
+                "count"));
+        requestFailures = metricRegistry.counter(MetricRegistry.name(ExternalRolesCommonPreprocessor.class,
+                "roles",
+                "request",
+                "failure",
+                "count"));
+        requestsRejected = metricRegistry.counter(MetricRegistry.name(ExternalRolesCommonPreprocessor.class,
+                "roles",
+                "request",
+                "rejected",
+                "count"));
+        responseSizes = PreprocessorMetrics.histogram(metricRegistry,
+                MetricRegistry.name(ExternalRolesCommonPreprocessor.class, "roles", "response", "size"));
+    }
+
+    /**
+     * @param authorizationKey the authorization key.
+     * @return a future that completes with the external roles of the authorization key.
+     */
+    @NotNull CompletableFuture<List<String>> fetchRoles(final @NotNull String authorizationKey) {
+        return send("user=" + authorizationKey,
+                false,
+                responseInfo -> RolesBodySubscriber.roles(roleNamePool, maxResponseBytes, responseSizes));
+    }
+
+    /**
+     * Sends one POST request with a form body with one {@code user} parameter per authorization key, so the size of a
+     * batch is not limited by the maximum URI length of the endpoint. The endpoint is expected to respond with one line
+     * per user in the format {@code <user>=<role>,<role>,...}.
+     *
+     * @param authorizationKeys the authorization keys.
+     * @return a future that completes with the external roles by authorization key.
+     */
+    @NotNull CompletableFuture<Map<String, List<String>>> fetchRolesBatch(
+            final @NotNull List<String> authorizationKeys) {
+        final String form = authorizationKeys.stream() //
+                .map(authorizationKey -> "user=" + URLEncoder.encode(authorizationKey, StandardCharsets.UTF_8)) //
+                .collect(Collectors.joining("&"));
+
+        final long maxBatchResponseBytes = maxResponseBytes * authorizationKeys.size();
+        return send(form,
+                true,
+                responseInfo -> RolesBodySubscriber.rolesByUser(roleNamePool, maxBatchResponseBytes, responseSizes));
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param parameters the URL encoded request parameters.
+     * @param form       {@code true} to send the parameters as form body of a POST request, {@code false} to send
+     *                   them as query of a GET request.
+     */
+    private <T> @NotNull CompletableFuture<T> send(
+            final @NotNull String parameters,
+            final boolean form,
+            final @NotNull HttpResponse.BodyHandler<T> bodyHandler) {
+        if (bulkhead != null && !bulkhead.tryAcquire()) {
+            requestsRejected.inc();
+            return CompletableFuture.failedFuture(new RolesUnavailableException("too many requests in flight"));
+        }
+        final Endpoint primary = selectEndpoint(null);
+        if (primary == null) {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+            requestsRejected.inc();
+            return CompletableFuture.failedFuture(new RolesUnavailableException("circuit breaker is open"));
+        }
+        final CompletableFuture<T> response = new CompletableFuture<>();
+        final AtomicInteger attempts = new AtomicInteger(1);
+        sendTo(primary, parameters, form, bodyHandler, response, attempts);
+
+        final LatencyTracker hedgeLatencyTracker = this.hedgeLatencyTracker;
+        if (hedgeLatencyTracker != null) {
+            final long hedgeDelayNanos = Math.max(hedgeMinDelayNanos, hedgeLatencyTracker.percentileNanos());
+            CompletableFuture.delayedExecutor(hedgeDelayNanos, TimeUnit.NANOSECONDS, executor).execute(() -> {
+                attempts.incrementAndGet();
+                // the response may have completed while the attempt was registered
+                if (response.isDone() || (bulkhead != null && !bulkhead.tryAcquire())) {
+                    attempts.decrementAndGet();
+                    return;
+                }
+                final Endpoint secondary = selectEndpoint(primary);
+                if (secondary == null) {
+                    if (bulkhead != null) {
+                        bulkhead.release();
+                    }
+                    attempts.decrementAndGet();
+                    return;
+                }
+                LOGGER.debug("HEDGING REQUEST TO {}", secondary.uri);
+                sendTo(secondary, parameters, form, bodyHandler, response, attempts);
+            });
+        }
+        return response;
+    }
+
+    private <T> void sendTo(
+            final @NotNull Endpoint endpoint,
+            final @NotNull String parameters,
+            final boolean form,
+            final @NotNull HttpResponse.BodyHandler<T> bodyHandler,
+            final @NotNull CompletableFuture<T> response,
+            final @NotNull AtomicInteger attempts) {
+        final long startNanos = System.nanoTime();
+        requestsInFlight.inc();
+        final CompletableFuture<HttpResponse<T>> attempt;
+        try {
+            attempt = httpClient.sendAsync(rolesRequest(endpoint.uri, parameters, form),
+                    responseInfo -> isSuccess(responseInfo.statusCode()) ?
+                            bodyHandler.apply(responseInfo) :
+                            HttpResponse.BodySubscribers.replacing(null));
+        } catch (final URISyntaxException | RuntimeException e) {
+            requestsInFlight.dec();
+            requestFailures.inc();
+            release(endpoint, false);
+            complete(response, attempts, null, e);
+            return;
+        }
+        // cancels the slower attempt when hedging
+        response.whenComplete((ignored, throwable) -> attempt.cancel(true));
+        attempt.whenComplete((httpResponse, throwable) -> {
+            requestsInFlight.dec();
+            final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof CancellationException) {
+                release(endpoint, null);
+                complete(response, attempts, null, throwable);
+            } else if (throwable != null) {
+                if (cause instanceof HttpTimeoutException) {
+                    requestTimeouts.inc();
+                } else {
+                    requestFailures.inc();
+                }
+                release(endpoint, false);
+                complete(response, attempts, null, throwable);
+            } else if (!isSuccess(httpResponse.statusCode())) {
+                final int statusCode = httpResponse.statusCode();
+                requestFailures.inc();
+                release(endpoint, statusCode < 500 && statusCode != 429);
+                complete(response, attempts, null, new RolesEndpointStatusException(statusCode));
+            } else {
+                release(endpoint, true);
+                final long latencyNanos = System.nanoTime() - startNanos;
+                requestTimer.update(latencyNanos, TimeUnit.NANOSECONDS);
+                if (hedgeLatencyTracker != null) {
+                    hedgeLatencyTracker.record(latencyNanos);
+                }
+                complete(response, attempts, httpResponse.body(), null);
+            }
+        });
+    }
+
+    /**
+     * Completes the response with the first successful attempt, or with the failure of the last attempt.
+     */
+    private static <T> void complete(
+            final @NotNull CompletableFuture<T> response,
+            final @NotNull AtomicInteger attempts,
+            final @Nullable T body,
+            final @Nullable Throwable throwable) {
+        if (throwable == null) {
+            response.complete(body);
+        } else if (attempts.decrementAndGet() == 0) {
+            response.completeExceptionally(throwable);
+        }
+    }
+
+    private static boolean isSuccess(final int statusCode) {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * Selects the endpoint with the least outstanding requests whose circuit breaker permits a request. Endpoints with
+     * the same number of outstanding requests are selected in turn.
+     *
+     * @param excluded an endpoint that must not be selected.
+     * @return the selected endpoint, or {@code null} if no request can be sent.
+     */
+    private @Nullable Endpoint selectEndpoint(final @Nullable Endpoint excluded) {
+        final int offset = endpoints.length == 1 ? 0 : Math.floorMod(nextEndpoint.getAndIncrement(), endpoints.length);
+        for (int attempt = 0; attempt < endpoints.length; attempt++) {
+            Endpoint selected = null;
+            for (int i = 0; i < endpoints.length; i++) {
+                final Endpoint endpoint = endpoints[(offset + i) % endpoints.length];
+                if (endpoint != excluded &&
+                        endpoint.isAvailable() &&
+                        (selected == null || endpoint.outstanding.get() < selected.outstanding.get())) {
+                    selected = endpoint;
+                }
+            }
+            if (selected == null) {
+                return null;
+            }
+            // another request may have taken the trial request of a half-open circuit breaker in the meantime
+            if (selected.circuitBreaker == null || selected.circuitBreaker.tryAcquire()) {
+                selected.outstanding.incrementAndGet();
+                return selected;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param success {@code true} for a successful request, {@code false} for a failed request, {@code null} for a
+     *                cancelled request, which only releases a pending trial request of the circuit breaker.
+     */
+    private void release(final @NotNull Endpoint endpoint, final @Nullable Boolean success) {
+        endpoint.outstanding.decrementAndGet();
+        if (bulkhead != null) {
+            bulkhead.release();
+        }
+        if (endpoint.circuitBreaker != null) {
+            if (success == null) {
+                endpoint.circuitBreaker.onCancelled();
+            } else if (success) {
+                endpoint.circuitBreaker.onSuccess();
+            } else {
+                endpoint.circuitBreaker.onFailure();
+            }
+        }
+    }
+
+    private @NotNull HttpRequest rolesRequest(
+            final @NotNull URI rolesEndpoint,
+            final @NotNull String parameters,
+            final boolean form) throws URISyntaxException {
+        if (form) {
+            LOGGER.debug("URI: POST {}", rolesEndpoint);
+            return HttpRequest.newBuilder()
+                    .timeout(requestTimeout)
+                    .uri(rolesEndpoint)
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(parameters, StandardCharsets.UTF_8))
+                    .build();
+        }
+        final URI requestUri = new URI( //
+                rolesEndpoint.getScheme(),
+                rolesEndpoint.getAuthority(),
+                rolesEndpoint.getPath(),
+                parameters,
+                rolesEndpoint.getFragment());
+        LOGGER.debug("URI: {}", requestUri);
+
+        return HttpRequest.newBuilder().timeout(requestTimeout).uri(requestUri).build();
+    }
+
+    /**
+     * Uses virtual threads when running on a JDK that supports them (JDK 21+), as this customization is compiled for
+     * JDK 11.
+     */
+    private static @NotNull ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException e) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "external-roles-http-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class Endpoint {
+
+        final @NotNull URI uri;
+        final @Nullable CircuitBreaker circuitBreaker;
+        final @NotNull AtomicInteger outstanding = new AtomicInteger();
+
+        Endpoint(final @NotNull URI uri, final @Nullable CircuitBreaker circuitBreaker) {
+            this.uri = uri;
+            this.circuitBreaker = circuitBreaker;
+        }
+
+        boolean isAvailable() {
+            return circuitBreaker == null || circuitBreaker.isCallPermitted();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Fills the {@link RoleCache} with the roles of all users from a paginated export of the roles service.
+ * <p>
+ * Each page contains one line per user in the format {@code <user>=<role>,<role>,...}. The next page is referenced by
+ * a {@code Link} header with {@code rel="next"}, relative to the URI of the current page; the last page has no such
+ * header. The pages are read line by line while they are received, so a page is never held in memory completely, and
+ * each user is added to the cache as soon as its line is read. Users that were already loaded by a lookup, or
+ * invalidated or updated by the change feed while the export is read, are not replaced. Identical role lists share
+ * one instance.
+ * <p>
+ * The export is read by a single daemon thread. A failed page stops the preload, the remaining users are then loaded
+ * on their first lookup as usual.
+ *
+ * @since 4.36.0
+ */
+class RolesPreloader {
+
+    private static final @NotNull Logger LOGGER = LoggerFactory.getLogger(RolesPreloader.class);
+
+    private final @NotNull URI exportEndpoint;
+    private final @NotNull RoleCache roleCache;
+    private final @NotNull RoleNamePool roleNamePool;
+    private final @NotNull Duration requestTimeout;
+    private final @NotNull HttpClient httpClient;
+    private final @NotNull Thread thread;
+
+    private volatile boolean closed;
+    private volatile @Nullable Stream<String> lines;
+
+    RolesPreloader(
+            final @NotNull URI exportEndpoint,
+            final @NotNull RoleCache roleCache,
+            final @NotNull RoleNamePool roleNamePool,
+            final @NotNull Duration connectTimeout,
+            final @NotNull Duration requestTimeout) {
+        this.exportEndpoint = exportEndpoint;
+        this.roleCache = roleCache;
+        this.roleNamePool = roleNamePool;
+        this.requestTimeout = requestTimeout;
+        httpClient = HttpClient.newBuilder().connectTimeout(connectTimeout).build();
+        thread = new Thread(this::run, "external-roles-preload");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Waits until the preload is finished or failed.
+     */
+    void await() throws InterruptedException {
+        thread.join();
+    }
+
+    void shutdown() {
+        closed = true;
+        final Stream<String> lines = this.lines;
+        if (lines != null) {
+            lines.close();
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        final long startNanos = System.nanoTime();
+        final Map<List<String>, List<String>> roleLists = new HashMap<>();
+        int pages = 0;
+        int users = 0;
+        URI page = exportEndpoint;
+        roleCache.startPreload();
+        try {
+            while (page != null && !closed) {
+                LOGGER.debug("PRELOAD PAGE: {}", page);
+                final HttpRequest request = HttpRequest.newBuilder(page).timeout(requestTimeout).build();
+                final HttpResponse<Stream<String>> response =
+                        httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+                try (final Stream<String> lines = response.body()) {
+                    this.lines = lines;
+                    if (closed) {
+                        return;
+                    }
+                    if (response.statusCode() != 200) {
+                        throw new IOException("export responded with status " + response.statusCode());
+                    }
+                    final Iterator<String> iterator = lines.iterator();
+                    while (iterator.hasNext()) {
+                        final String line = iterator.next();
+                        final int separator = line.lastIndexOf('=');
+                        if (separator <= 0) {
+                            continue;
+                        }
+                        final String key = line.substring(0, separator).trim();
+                        final List<String> roles =
+                                RolesBodySubscriber.parse(line.substring(separator + 1), roleNamePool);
+                        roleCache.preload(key, roleLists.computeIfAbsent(roles, r -> r));
+                        users++;
+                    }
+                } finally {
+                    this.lines = null;
+                }
+                pages++;
+                page = nextPage(page, response);
+            }
+            LOGGER.debug("PRELOAD FINISHED: {} users from {} pages in {} ms",
+                    users,
+                    pages,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } catch (final InterruptedException e) {
+            // shutdown
+        } catch (final IOException | RuntimeException e) {
+            if (!closed) {
+                LOGGER.warn("PRELOAD FAILED after {} users from {} pages: {}", users, pages, e.toString());
+            }
+        } finally {
+            roleCache.finishPreload();
+        }
+    }
+
+    /**
+     * @return the URI of the {@code Link} header with {@code rel="next"}, or {@code null} if this is the last page.
+     */
+    private static @Nullable URI nextPage(final @NotNull URI page, final @NotNull HttpResponse<?> response) {
+        for (final String header : response.headers().allValues("Link")) {
+            for (final String link : header.split(",")) {
+                final int start = link.indexOf('<');
+                final int end = link.indexOf('>', start + 1);
+                if (start < 0 || end < 0) {
+                    continue;
+                }
+                for (final String parameter : link.substring(end + 1).split(";")) {
+                    final String trimmed = parameter.trim().replace("\"", "");
+                    if (trimmed.equalsIgnoreCase("rel=next")) {
+                        return page.resolve(link.substring(start + 1, end).trim());
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Signals that a roles request was rejected without being sent, because the circuit breaker is open or the maximum
+ * number of in-flight requests is reached.
+ *
+ * @since 4.36.0
+ */
+class RolesUnavailableException extends RuntimeException {
+
+    RolesUnavailableException(final @NotNull String message) {
+        // the rejection is expected under load, so the stack trace is not filled in
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 4.36.0
+ */
+class ConnectRateLimiterTest {
+
+    private static final long START_NANOS = 1_000_000_000L;
+
+    @Test
+    void burst() throws Exception {
+        final ConnectRateLimiter limiter = new ConnectRateLimiter(1, 3, 32, 64, 1024);
+        final byte[] address = address("10.0.0.1");
+
+        assertThat(limiter.tryAcquire(address, START_NANOS)).isTrue();
+        assertThat(limiter.tryAcquire(address, START_NANOS)).isTrue();
+        assertThat(limiter.tryAcquire(address, START_NANOS)).isTrue();
+        assertThat(limiter.tryAcquire(address, START_NANOS)).isFalse();
+    }
+
+    @Test
+    void refill() throws Exception {
+        final ConnectRateLimiter limiter = new ConnectRateLimiter(2, 2, 32, 64, 1024);
+        final byte[] address = address("10.0.0.1");
+        assertThat(limiter.tryAcquire(address, START_NANOS)).isTrue();
+        assertThat(limiter.tryAcquire(address, START_NANOS)).isTrue();
+        assertThat(limiter.tryAcquire(address, START_NANOS)).isFalse();
+
+        // 2 connects per second refill one token every 500 ms
+        final long halfSecond = TimeUnit.MILLISECONDS.toNanos(500);
+        assertThat(limiter.tryAcquire(address, START_NANOS + halfSecond / 2)).isFalse();
+        assertThat(limiter.tryAcquire(address, START_NANOS + halfSecond)).isTrue();
+        assertThat(limiter.tryAcquire(address, START_NANOS + halfSecond)).isFalse();
+
+        // the bucket does not grow beyond the burst
+        final long later = START_NANOS + TimeUnit.SECONDS.toNanos(60);
+        assertThat(limiter.tryAcquire(address, later)).isTrue();
+        assertThat(limiter.tryAcquire(address, later)).isTrue();
+        assertThat(limiter.tryAcquire(address, later)).isFalse();
+    }
+
+    @Test
+    void ipv4Prefix_shared() throws Exception {
+        final ConnectRateLimiter limiter = new ConnectRateLimiter(1, 1, 24, 64, 1024);
+
+        assertThat(limiter.tryAcquire(address("10.0.0.1"), START_NANOS)).isTrue();
+        assertThat(limiter.tryAcquire(address("10.0.0.2"), START_NANOS)).isFalse();
+        assertThat(limiter.tryAcquire(address("10.0.1.1"), START_NANOS)).isTrue();
+    }
+
+    @Test
+    void ipv6Prefix_shared() throws Exception {
+        final ConnectRateLimiter limiter = new ConnectRateLimiter(1, 1, 32, 64, 1024);
+
+        assertThat(limiter.tryAcquire(address("2001:db8::1"), START_NANOS)).isTrue();
+        assertThat(limiter.tryAcquire(address("2001:db8::2"), START_NANOS)).isFalse();
+        assertThat(limiter.tryAcquire(address("2001:db8:0:1::1"), START_NANOS)).isTrue();
+    }
+
+    @Test
+    void ipv4AndIpv6_notShared() throws Exception {
+        final ConnectRateLimiter limiter = new ConnectRateLimiter(1, 1, 0, 0, 1024);
+
+        assertThat(limiter.tryAcquire(address("10.0.0.1"), START_NANOS)).isTrue();
+        assertThat(limiter.tryAcquire(address("192.168.0.1"), START_NANOS)).isFalse();
+        assertThat(limiter.tryAcquire(address("2001:db8::1"), START_NANOS)).isTrue();
+        assertThat(limiter.tryAcquire(address("fd00::1"), START_NANOS)).isFalse();
+    }
+
+    @Test
+    void flood_newAddressesNeverRejected() {
+        final ConnectRateLimiter limiter = new ConnectRateLimiter(1, 1, 32, 64, 64);
+        final byte[] address = new byte[4];
+
+        // far more distinct addresses than tracked entries, all within the refill time of their buckets
+        for (int i = 0; i < 100_000; i++) {
+            address[0] = 10;
+            address[1] = (byte) (i >>> 16);
+            address[2] = (byte) (i >>> 8);
+            address[3] = (byte) i;
+            assertThat(limiter.tryAcquire(address, START_NANOS + i)).isTrue();
+        }
+    }
+
+    private static byte @NotNull [] address(final @NotNull String literal) throws Exception {
+        return InetAddress.getByName(literal).getAddress();
+    }
+}
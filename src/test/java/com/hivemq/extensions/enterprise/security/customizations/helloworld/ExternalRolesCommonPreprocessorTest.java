@@ -34,11 +34,17 @@ import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 import org.testcontainers.utility.MountableFile;
 import software.xdev.mockserver.client.MockServerClient;
+import software.xdev.mockserver.matchers.Times;
+import software.xdev.mockserver.verify.VerificationTimes;
 import software.xdev.testcontainers.mockserver.containers.MockServerContainer;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static software.xdev.mockserver.model.HttpRequest.request;
 import static software.xdev.mockserver.model.HttpResponse.response;
@@ -67,6 +73,8 @@ class ExternalRolesCommonPreprocessorTest {
             .withNetwork(network)
             .withNetworkAliases("hivemq")
             .withEnv("ROLES_ENDPOINT", "http://mockserver:" + MockServerContainer.PORT)
+            .withEnv("ROLES_CHANGE_FEED_ENDPOINT", "http://mockserver:" + MockServerContainer.PORT + "/changes")
+            .withEnv("ROLES_PRELOAD_ENDPOINT", "http://mockserver:" + MockServerContainer.PORT + "/export")
             .withLogConsumer(outputFrame -> System.out.print("HIVEMQ: " + outputFrame.getUtf8String()))
             .withCopyFileToContainer(MountableFile.forClasspathResource("/external-roles-config.xml"),
                     ESE_HOME_FOLDER + "/conf/config.xml")
@@ -82,7 +90,24 @@ class ExternalRolesCommonPreprocessorTest {
     private static @NotNull Transferable externalRolesCommonPreprocessor() {
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
         ShrinkWrap.create(JavaArchive.class)
-                .addClasses(ExternalRolesCommonPreprocessor.class)
+                .addClasses(ExternalRolesCommonPreprocessor.class,
+                        CanonicalTable.class,
+                        CircuitBreaker.class,
+                        FileRolesSource.class,
+                        LatencyTracker.class,
+                        MergedRoleListPool.class,
+                        PreprocessorMetrics.class,
+                        RoleCache.class,
+                        RoleLookupBatcher.class,
+                        RoleNamePool.class,
+                        RoleRequestCoalescer.class,
+                        RoleSnapshot.class,
+                        RolesChangeFeed.class,
+                        RolesBodySubscriber.class,
+                        RolesEndpointClient.class,
+                        RolesEndpointStatusException.class,
+                        RolesPreloader.class,
+                        RolesUnavailableException.class)
                 .as(ZipExporter.class)
                 .exportTo(out);
         return Transferable.of(out.toByteArray());
@@ -114,12 +139,286 @@ class ExternalRolesCommonPreprocessorTest {
         }
     }
 
+    @Test
+    void authorize_cached() throws Exception {
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            mockServerClient.when(request("/").withQueryStringParameter("user", "my-user").withMethod("GET"))
+                    .respond(response().withBody("external-role-1,external-role-2"));
+
+            connect().disconnect();
+            final Mqtt5BlockingClient mqttClient = connect();
+            mqttClient.subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+            mqttClient.subscribeWith().topicFilter("external-role-2").qos(MqttQos.AT_MOST_ONCE).send();
+
+            mockServerClient.verify(request("/") //
+                    .withQueryStringParameter("user", "my-user"), VerificationTimes.exactly(1));
+        }
+    }
+
+    @Test
+    void authorize_concurrentConnectsCoalesced() throws Exception {
+        hivemq.copyFileToContainer(MountableFile.forClasspathResource("/external-roles-coalesce-config.xml"),
+                ESE_HOME_FOLDER + "/conf/config.xml");
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            mockServerClient.when(request("/").withQueryStringParameter("user", "my-user").withMethod("GET"))
+                    .respond(response().withBody("external-role-1").withDelay(TimeUnit.SECONDS, 2));
+
+            // without the role cache, the connects that arrive while the request is in flight share it
+            final List<CompletableFuture<Mqtt5BlockingClient>> clients = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                clients.add(CompletableFuture.supplyAsync(this::connect));
+            }
+            for (final CompletableFuture<Mqtt5BlockingClient> client : clients) {
+                client.get().subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+            }
+
+            mockServerClient.verify(request("/") //
+                    .withQueryStringParameter("user", "my-user"), VerificationTimes.exactly(1));
+        }
+    }
+
+    @Test
+    void authorize_changeFeedInvalidation() throws Exception {
+        hivemq.copyFileToContainer(MountableFile.forClasspathResource("/external-roles-change-feed-config.xml"),
+                ESE_HOME_FOLDER + "/conf/config.xml");
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            mockServerClient.when(request("/").withQueryStringParameter("user", "my-user").withMethod("GET"))
+                    .respond(response().withBody("external-role-1,external-role-2"));
+            // the feed then reconnects with a last event id, so the reconnects do not clear the cache
+            mockServerClient.when(request("/changes").withMethod("GET"), Times.once())
+                    .respond(response().withHeader("Content-Type", "text/event-stream").withBody("id: 1\n\n"));
+            hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+            connect().disconnect();
+
+            mockServerClient.when(request("/changes").withHeader("Last-Event-ID", "1").withMethod("GET"),
+                            Times.once())
+                    .respond(response().withHeader("Content-Type", "text/event-stream")
+                            .withBody("id: 2\nevent: invalidate\ndata: my-user\n\n"));
+            final long deadline = System.currentTimeMillis() + 30_000;
+            while (mockServerClient.retrieveRecordedRequests(request("/changes").withHeader("Last-Event-ID", "2"))
+                    .length == 0) {
+                Assertions.assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(100);
+            }
+
+            final Mqtt5BlockingClient mqttClient = connect();
+            mqttClient.subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+
+            mockServerClient.verify(request("/") //
+                    .withQueryStringParameter("user", "my-user"), VerificationTimes.exactly(2));
+        }
+    }
+
+    @Test
+    void authorize_preloaded() throws Exception {
+        hivemq.copyFileToContainer(MountableFile.forClasspathResource("/external-roles-preload-config.xml"),
+                ESE_HOME_FOLDER + "/conf/config.xml");
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            // expectations are matched in the order they are created, so the second page is matched first
+            mockServerClient.when(request("/export").withQueryStringParameter("page", "2").withMethod("GET"))
+                    .respond(response().withBody("my-user=external-role-1,external-role-2\n"));
+            mockServerClient.when(request("/export").withMethod("GET"))
+                    .respond(response().withHeader("Link", "</export?page=2>; rel=\"next\"")
+                            .withBody("other-user=external-role-2\n"));
+            hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+            final Mqtt5BlockingClient mqttClient = connect();
+            mqttClient.subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+            mqttClient.subscribeWith().topicFilter("external-role-2").qos(MqttQos.AT_MOST_ONCE).send();
+
+            mockServerClient.verify(request("/") //
+                    .withQueryStringParameter("user", "my-user"), VerificationTimes.never());
+        }
+    }
+
+    @Test
+    void authorize_clientErrorNotParsed() throws Exception {
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            mockServerClient.when(request("/").withQueryStringParameter("user", "my-user").withMethod("GET"))
+                    .respond(response().withStatusCode(404).withBody("external-role-1"));
+
+            connect().disconnect();
+            final Mqtt5BlockingClient mqttClient = connect();
+            mqttClient.subscribeWith().topicFilter("internal-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+
+            Assertions.assertThatThrownBy(() -> mqttClient.subscribeWith()
+                            .topicFilter("external-role-1")
+                            .qos(MqttQos.AT_MOST_ONCE)
+                            .send()) //
+                    .isInstanceOf(Mqtt5SubAckException.class).hasMessage("SUBACK contains only Error Codes");
+
+            // the failed lookup is not cached
+            mockServerClient.verify(request("/") //
+                    .withQueryStringParameter("user", "my-user"), VerificationTimes.exactly(2));
+        }
+    }
+
+    @Test
+    void authorize_staleRolesDuringOutage() throws Exception {
+        hivemq.copyFileToContainer(MountableFile.forClasspathResource("/external-roles-stale-config.xml"),
+                ESE_HOME_FOLDER + "/conf/config.xml");
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            // expectations are matched in the order they are created, so only the first request succeeds
+            mockServerClient.when(request("/").withQueryStringParameter("user", "my-user").withMethod("GET"),
+                    Times.once()).respond(response().withBody("external-role-1"));
+            mockServerClient.when(request("/").withQueryStringParameter("user", "my-user").withMethod("GET"))
+                    .respond(response().withStatusCode(500));
+
+            final Mqtt5BlockingClient mqttClient = connect();
+            mqttClient.subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+            mqttClient.disconnect();
+
+            // the cached entry expires after rolesCacheTtl, but is used within rolesCacheMaxStaleness
+            Thread.sleep(2_000);
+            final Mqtt5BlockingClient staleClient = connect();
+            staleClient.subscribeWith().topicFilter("internal-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+            staleClient.subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+
+            mockServerClient.verify(request("/") //
+                    .withQueryStringParameter("user", "my-user"), VerificationTimes.exactly(2));
+        }
+    }
+
+    @Test
+    void authorize_deniedDuringOutage() throws Exception {
+        hivemq.copyFileToContainer(MountableFile.forClasspathResource("/external-roles-deny-config.xml"),
+                ESE_HOME_FOLDER + "/conf/config.xml");
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            // expectations are matched in the order they are created, so only the first request succeeds
+            mockServerClient.when(request("/").withQueryStringParameter("user", "my-user").withMethod("GET"),
+                    Times.once()).respond(response().withBody("external-role-1"));
+            mockServerClient.when(request("/").withQueryStringParameter("user", "my-user").withMethod("GET"))
+                    .respond(response().withStatusCode(500));
+
+            final Mqtt5BlockingClient mqttClient = connect();
+            mqttClient.subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+            mqttClient.disconnect();
+
+            // without rolesCacheMaxStaleness the expired entry is not used, so the client gets no roles at all
+            Thread.sleep(2_000);
+            final Mqtt5BlockingClient deniedClient = connect();
+            Assertions.assertThatThrownBy(() -> deniedClient.subscribeWith()
+                            .topicFilter("internal-role-1")
+                            .qos(MqttQos.AT_MOST_ONCE)
+                            .send()) //
+                    .isInstanceOf(Mqtt5SubAckException.class).hasMessage("SUBACK contains only Error Codes");
+            Assertions.assertThatThrownBy(() -> deniedClient.subscribeWith()
+                            .topicFilter("external-role-1")
+                            .qos(MqttQos.AT_MOST_ONCE)
+                            .send()) //
+                    .isInstanceOf(Mqtt5SubAckException.class).hasMessage("SUBACK contains only Error Codes");
+
+            mockServerClient.verify(request("/") //
+                    .withQueryStringParameter("user", "my-user"), VerificationTimes.exactly(2));
+        }
+    }
+
+    @Test
+    void authorize_trimmedRoles() throws Exception {
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            mockServerClient.when(request("/").withQueryStringParameter("user", "my-user").withMethod("GET"))
+                    .respond(response().withBody(" external-role-1 ,,external-role-1,external-role-2\n"));
+
+            final Mqtt5BlockingClient mqttClient = connect();
+            mqttClient.subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+            mqttClient.subscribeWith().topicFilter("external-role-2").qos(MqttQos.AT_MOST_ONCE).send();
+        }
+    }
+
+    @Test
+    void authorize_batched() throws Exception {
+        hivemq.copyFileToContainer(MountableFile.forClasspathResource("/external-roles-batch-config.xml"),
+                ESE_HOME_FOLDER + "/conf/config.xml");
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+        try (MockServerClient mockServerClient = new MockServerClient( //
+                mockServer.getHost(), mockServer.getServerPort())) {
+            mockServerClient.when(request("/").withMethod("POST")
+                            .withHeader("Content-Type", "application/x-www-form-urlencoded"))
+                    .respond(response().withBody("my-user=external-role-1\nmy-other-user=external-role-2\n"));
+
+            // the batch is sent as soon as both lookups were added
+            final CompletableFuture<Mqtt5BlockingClient> myUser =
+                    CompletableFuture.supplyAsync(() -> connect("my-user"));
+            final CompletableFuture<Mqtt5BlockingClient> myOtherUser =
+                    CompletableFuture.supplyAsync(() -> connect("my-other-user"));
+            myUser.get().subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+            myOtherUser.get().subscribeWith().topicFilter("external-role-2").qos(MqttQos.AT_MOST_ONCE).send();
+
+            mockServerClient.verify(request("/").withMethod("POST"), VerificationTimes.exactly(1));
+            mockServerClient.verify(request("/").withMethod("GET"), VerificationTimes.never());
+        }
+    }
+
+    @Test
+    void authorize_rolesFile() throws Exception {
+        hivemq.copyFileToContainer(MountableFile.forClasspathResource("/external-roles-file-config.xml"),
+                ESE_HOME_FOLDER + "/conf/config.xml");
+        hivemq.copyFileToContainer(Transferable.of("my-user=external-role-1\n"), ESE_HOME_FOLDER + "/conf/roles.txt");
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+
+        final Mqtt5BlockingClient mqttClient = connect();
+        mqttClient.subscribeWith().topicFilter("external-role-1").qos(MqttQos.AT_MOST_ONCE).send();
+        mqttClient.disconnect();
+
+        // the changed file is indexed again in the background
+        hivemq.copyFileToContainer(Transferable.of("# reloaded\nmy-user=external-role-2\n"),
+                ESE_HOME_FOLDER + "/conf/roles.txt");
+        final long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            final Mqtt5BlockingClient reconnected = connect();
+            try {
+                reconnected.subscribeWith().topicFilter("external-role-2").qos(MqttQos.AT_MOST_ONCE).send();
+                break;
+            } catch (final Mqtt5SubAckException e) {
+                Assertions.assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(100);
+            } finally {
+                reconnected.disconnect();
+            }
+        }
+
+        final Mqtt5BlockingClient reloadedClient = connect();
+        Assertions.assertThatThrownBy(() -> reloadedClient.subscribeWith()
+                        .topicFilter("external-role-1")
+                        .qos(MqttQos.AT_MOST_ONCE)
+                        .send()) //
+                .isInstanceOf(Mqtt5SubAckException.class).hasMessage("SUBACK contains only Error Codes");
+    }
+
     private Mqtt5BlockingClient connect() {
+        return connect("my-user");
+    }
+
+    private Mqtt5BlockingClient connect(final @NotNull String username) {
         final Mqtt5BlockingClient client = MqttClient.builder()
                 .useMqttVersion5()
                 .serverPort(hivemq.getMqttPort())
                 .simpleAuth()
-                .username("my-user")
+                .username(username)
                 .password("my-password".getBytes(StandardCharsets.UTF_8))
                 .applySimpleAuth()
                 .buildBlocking();
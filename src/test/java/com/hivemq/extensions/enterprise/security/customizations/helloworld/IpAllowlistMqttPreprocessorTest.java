@@ -34,6 +34,7 @@ import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
@@ -64,7 +65,10 @@ class IpAllowlistMqttPreprocessorTest {
     private static @NotNull Transferable ipAllowlistMqttPreprocessor() {
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
         ShrinkWrap.create(JavaArchive.class)
-                .addClasses(IpAllowlistMqttPreprocessor.class)
+                .addClasses(IpAllowlistMqttPreprocessor.class,
+                        ConnectRateLimiter.class,
+                        IpPrefixTrie.class,
+                        PreprocessorMetrics.class)
                 .as(ZipExporter.class)
                 .exportTo(out);
         return Transferable.of(out.toByteArray());
@@ -86,6 +90,17 @@ class IpAllowlistMqttPreprocessorTest {
         client.disconnect();
     }
 
+    @Test
+    void allowed_cidr() throws Exception {
+        // Private network that contains the gateway IP of the docker bridge
+        hivemq.withEnv("ALLOWED_CLIENT_IP", "172.16.0.0/12");
+        hivemq.start();
+
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+        final Mqtt5BlockingClient client = connect();
+        client.disconnect();
+    }
+
     @Test
     void notAllowed() throws Exception {
         // Unknown IP
@@ -97,6 +112,44 @@ class IpAllowlistMqttPreprocessorTest {
                 .hasMessage("CONNECT failed as CONNACK contained an Error Code: NOT_AUTHORIZED.");
     }
 
+    @Test
+    void notAllowed_cidr() throws Exception {
+        // Network that does not contain the gateway IP of the docker bridge
+        hivemq.withEnv("ALLOWED_CLIENT_IP", "173.16.0.0/12");
+        hivemq.start();
+
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+        assertThatThrownBy(this::connect).isInstanceOf(Mqtt5ConnAckException.class)
+                .hasMessage("CONNECT failed as CONNACK contained an Error Code: NOT_AUTHORIZED.");
+    }
+
+    @Test
+    void allowlistFile_reloaded() throws Exception {
+        hivemq.start();
+        hivemq.copyFileToContainer(MountableFile.forClasspathResource("/ip-allowlist-file-config.xml"),
+                ESE_HOME_FOLDER + "/conf/config.xml");
+        // Unknown IP
+        hivemq.copyFileToContainer(Transferable.of("173.17.0.1\n"), ESE_HOME_FOLDER + "/conf/ip-allowlist.txt");
+
+        hivemq.enableExtension(ESE_NAME, ESE_ID);
+        assertThatThrownBy(this::connect).isInstanceOf(Mqtt5ConnAckException.class)
+                .hasMessage("CONNECT failed as CONNACK contained an Error Code: NOT_AUTHORIZED.");
+
+        // Private network that contains the gateway IP of the docker bridge
+        hivemq.copyFileToContainer(Transferable.of("# reloaded\n172.16.0.0/12\n"),
+                ESE_HOME_FOLDER + "/conf/ip-allowlist.txt");
+        final long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            try {
+                connect().disconnect();
+                break;
+            } catch (final Mqtt5ConnAckException e) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(100);
+            }
+        }
+    }
+
     private Mqtt5BlockingClient connect() {
         final Mqtt5BlockingClient client = MqttClient.builder()
                 .useMqttVersion5()
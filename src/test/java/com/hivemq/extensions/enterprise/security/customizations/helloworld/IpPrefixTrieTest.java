@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @since 4.36.0
+ */
+class IpPrefixTrieTest {
+
+    @Test
+    void contains_address() throws Exception {
+        final IpPrefixTrie trie = trie("10.0.0.1");
+
+        assertThat(trie.contains(address("10.0.0.1"))).isTrue();
+        assertThat(trie.contains(address("10.0.0.2"))).isFalse();
+        assertThat(trie.contains(address("10.0.0.0"))).isFalse();
+    }
+
+    @Test
+    void contains_mismatch() throws Exception {
+        final IpPrefixTrie trie = trie("10.0.0.0/8", "192.168.0.0/20");
+
+        assertThat(trie.contains(address("10.255.1.1"))).isTrue();
+        assertThat(trie.contains(address("11.0.0.0"))).isFalse();
+        // the prefix ends within the third byte
+        assertThat(trie.contains(address("192.168.15.255"))).isTrue();
+        assertThat(trie.contains(address("192.168.16.0"))).isFalse();
+        assertThat(trie.contains(address("192.169.0.0"))).isFalse();
+    }
+
+    @Test
+    void contains_empty() throws Exception {
+        final IpPrefixTrie trie = new IpPrefixTrie();
+
+        assertThat(trie.contains(address("10.0.0.1"))).isFalse();
+        assertThat(trie.contains(address("2001:db8::1"))).isFalse();
+        assertThat(trie.size()).isEqualTo(0);
+    }
+
+    @Test
+    void add_branchSplit() throws Exception {
+        // 10.0.0.0/16 and 10.1.0.0/16 branch at bit 15, 10.128.0.0/9 at bit 8 above them
+        final IpPrefixTrie trie = trie("10.0.0.0/16", "10.1.0.0/16", "10.128.0.0/9");
+
+        assertThat(trie.contains(address("10.0.255.255"))).isTrue();
+        assertThat(trie.contains(address("10.1.0.1"))).isTrue();
+        assertThat(trie.contains(address("10.200.0.1"))).isTrue();
+        assertThat(trie.contains(address("10.2.0.1"))).isFalse();
+        assertThat(trie.contains(address("10.64.0.1"))).isFalse();
+        assertThat(trie.contains(address("11.0.0.1"))).isFalse();
+    }
+
+    @Test
+    void add_shorterPrefix_coversExistingNodes() throws Exception {
+        final IpPrefixTrie trie = trie("10.1.0.0/16", "10.2.0.0/16", "10.1.2.3");
+        assertThat(trie.contains(address("10.3.0.1"))).isFalse();
+
+        trie.add("10.0.0.0/8");
+
+        assertThat(trie.contains(address("10.1.2.3"))).isTrue();
+        assertThat(trie.contains(address("10.3.0.1"))).isTrue();
+        assertThat(trie.contains(address("11.0.0.1"))).isFalse();
+    }
+
+    @Test
+    void add_prefixOfBranchNode_coversBranches() throws Exception {
+        // the branch node of 10.0.0.0/16 and 10.1.0.0/16 has the same length as 10.0.0.0/15
+        final IpPrefixTrie trie = trie("10.0.0.0/16", "10.1.0.0/16", "10.0.0.0/15");
+
+        assertThat(trie.contains(address("10.1.255.255"))).isTrue();
+        assertThat(trie.contains(address("10.2.0.0"))).isFalse();
+    }
+
+    @Test
+    void add_longerPrefix_alreadyCovered() throws Exception {
+        final IpPrefixTrie trie = trie("10.0.0.0/8", "10.1.0.0/16", "10.1.2.3");
+
+        assertThat(trie.contains(address("10.200.0.1"))).isTrue();
+        assertThat(trie.contains(address("11.0.0.1"))).isFalse();
+        assertThat(trie.size()).isEqualTo(3);
+    }
+
+    @Test
+    void add_hostBitsMasked() throws Exception {
+        final IpPrefixTrie trie = trie("10.1.2.3/8", "192.168.1.255/23");
+
+        assertThat(trie.contains(address("10.200.0.1"))).isTrue();
+        assertThat(trie.contains(address("192.168.0.0"))).isTrue();
+        assertThat(trie.contains(address("192.168.1.1"))).isTrue();
+        assertThat(trie.contains(address("192.168.2.0"))).isFalse();
+    }
+
+    @Test
+    void add_zeroLength() throws Exception {
+        final IpPrefixTrie trie = trie("10.0.0.0/8", "0.0.0.0/0");
+
+        assertThat(trie.contains(address("10.0.0.1"))).isTrue();
+        assertThat(trie.contains(address("255.255.255.255"))).isTrue();
+        assertThat(trie.contains(address("2001:db8::1"))).isFalse();
+    }
+
+    @Test
+    void add_ipv6() throws Exception {
+        final IpPrefixTrie trie = trie("2001:db8::/32", "fe80::1", "fd00:1:2:3::/63", "10.0.0.0/8");
+
+        assertThat(trie.contains(address("2001:db8:ffff::1"))).isTrue();
+        assertThat(trie.contains(address("2001:db9::1"))).isFalse();
+        assertThat(trie.contains(address("fe80::1"))).isTrue();
+        assertThat(trie.contains(address("fe80::2"))).isFalse();
+        assertThat(trie.contains(address("fd00:1:2:2::1"))).isTrue();
+        assertThat(trie.contains(address("fd00:1:2:3::1"))).isTrue();
+        assertThat(trie.contains(address("fd00:1:2:4::1"))).isFalse();
+        // IPv4 prefixes do not match IPv6 addresses with the same leading bits
+        assertThat(trie.contains(address("a00::1"))).isFalse();
+    }
+
+    @Test
+    void add_ipv6ZeroLength() throws Exception {
+        final IpPrefixTrie trie = trie("::/0");
+
+        assertThat(trie.contains(address("2001:db8::1"))).isTrue();
+        assertThat(trie.contains(address("::1"))).isTrue();
+        assertThat(trie.contains(address("10.0.0.1"))).isFalse();
+    }
+
+    @Test
+    void add_invalid() {
+        final IpPrefixTrie trie = new IpPrefixTrie();
+
+        assertThatThrownBy(() -> trie.add("10.0.0")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.add("10.0.0.256")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.add("10.0.0.0/33")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.add("10.0.0.0/-1")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.add("10.0.0.0/x")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.add("2001:db8::/129")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.add("localhost")).isInstanceOf(IllegalArgumentException.class);
+        assertThat(trie.size()).isEqualTo(0);
+    }
+
+    private static @NotNull IpPrefixTrie trie(final @NotNull String @NotNull ... entries) {
+        final IpPrefixTrie trie = new IpPrefixTrie();
+        for (final String entry : entries) {
+            trie.add(entry);
+        }
+        return trie;
+    }
+
+    private static byte @NotNull [] address(final @NotNull String literal) throws Exception {
+        return InetAddress.getByName(literal).getAddress();
+    }
+}
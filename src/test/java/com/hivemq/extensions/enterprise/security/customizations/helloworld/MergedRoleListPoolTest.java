@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 4.36.0
+ */
+class MergedRoleListPoolTest {
+
+    @Test
+    void merge_equalRoles_sameInstance() {
+        final MergedRoleListPool pool = new MergedRoleListPool(100);
+
+        final List<String> merged = pool.merge(List.of("internal-role"), List.of("external-role-1", "external-role-2"));
+
+        assertThat(merged).containsExactly("internal-role", "external-role-1", "external-role-2");
+        assertThat(pool.merge(new ArrayList<>(List.of("internal-role")),
+                new ArrayList<>(List.of("external-role-1", "external-role-2")))).isSameAs(merged);
+    }
+
+    @Test
+    void merge_differentSplit_notSameInstance() {
+        final MergedRoleListPool pool = new MergedRoleListPool(100);
+
+        final List<String> split = pool.merge(List.of("role-1"), List.of("role-2"));
+        final List<String> allExternal = pool.merge(List.of(), List.of("role-1", "role-2"));
+        final List<String> allInternal = pool.merge(List.of("role-1", "role-2"), List.of());
+
+        assertThat(split).containsExactly("role-1", "role-2");
+        assertThat(allExternal).containsExactly("role-1", "role-2");
+        assertThat(allInternal).containsExactly("role-1", "role-2");
+        assertThat(allExternal).isNotSameAs(split);
+        assertThat(allInternal).isNotSameAs(split);
+        assertThat(allInternal).isNotSameAs(allExternal);
+        assertThat(pool.merge(List.of(), List.of("role-1", "role-2"))).isSameAs(allExternal);
+        assertThat(pool.merge(List.of("role-1", "role-2"), List.of())).isSameAs(allInternal);
+    }
+
+    @Test
+    void merge_manyCombinations_resized() {
+        final MergedRoleListPool pool = new MergedRoleListPool(1_000);
+        final List<List<String>> merged = new ArrayList<>();
+
+        for (int i = 0; i < 1_000; i++) {
+            merged.add(pool.merge(List.of("internal-role"), List.of("external-role-" + i)));
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(pool.merge(List.of("internal-role"), List.of("external-role-" + i))).isSameAs(merged.get(i));
+        }
+    }
+
+    @Test
+    void merge_full_notPooled() {
+        final MergedRoleListPool pool = new MergedRoleListPool(1);
+        final List<String> pooled = pool.merge(List.of("internal-role"), List.of("external-role-1"));
+
+        final List<String> notPooled = pool.merge(List.of("internal-role"), List.of("external-role-2"));
+
+        assertThat(notPooled).containsExactly("internal-role", "external-role-2");
+        assertThat(pool.merge(List.of("internal-role"), List.of("external-role-2"))).isNotSameAs(notPooled);
+        assertThat(pool.merge(List.of("internal-role"), List.of("external-role-1"))).isSameAs(pooled);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.Counter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @since 4.36.0
+ */
+class RoleCacheTest {
+
+    private static final @NotNull Duration LONG = Duration.ofHours(1);
+    private static final @NotNull Duration SHORT = Duration.ofMillis(50);
+    private static final long EXPIRED_MILLIS = 100;
+
+    private final @NotNull FakeLoader loader = new FakeLoader();
+    private final @NotNull Counter hits = new Counter();
+    private final @NotNull Counter misses = new Counter();
+    private final @NotNull Counter staleHits = new Counter();
+
+    @Test
+    void get_cached() throws Exception {
+        final RoleCache cache = cache(100, LONG, Duration.ZERO, LONG, Duration.ZERO);
+
+        final CompletableFuture<List<String>> first = cache.get("user-1");
+        assertThat(first.isDone()).isFalse();
+        loader.complete(0, List.of("role-1"));
+
+        assertThat(first.get()).containsExactly("role-1");
+        assertThat(cache.get("user-1").get()).containsExactly("role-1");
+        assertThat(loader.loads()).isEqualTo(1);
+        assertThat(misses.getCount()).isEqualTo(1);
+        assertThat(hits.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void get_ttlExpired_loaded() throws Exception {
+        final RoleCache cache = cache(100, SHORT, Duration.ZERO, LONG, Duration.ZERO);
+        cache.get("user-1");
+        loader.complete(0, List.of("role-1"));
+
+        Thread.sleep(EXPIRED_MILLIS);
+        final CompletableFuture<List<String>> expired = cache.get("user-1");
+
+        assertThat(expired.isDone()).isFalse();
+        assertThat(loader.loads()).isEqualTo(2);
+        loader.complete(1, List.of("role-2"));
+        assertThat(expired.get()).containsExactly("role-2");
+        assertThat(cache.get("user-1").get()).containsExactly("role-2");
+        assertThat(misses.getCount()).isEqualTo(2);
+        assertThat(hits.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void get_refreshAhead_servedWhileRefreshing() throws Exception {
+        // entries are refreshed once they are older than 100 ms, and expire after an hour
+        final RoleCache cache = cache(100, LONG, LONG.minusMillis(EXPIRED_MILLIS), LONG, Duration.ZERO);
+        cache.get("user-1");
+        loader.complete(0, List.of("role-1"));
+
+        Thread.sleep(2 * EXPIRED_MILLIS);
+        final CompletableFuture<List<String>> refreshing = cache.get("user-1");
+
+        // the cached roles are returned right away, and only a single background reload is started
+        assertThat(refreshing.isDone()).isTrue();
+        assertThat(refreshing.get()).containsExactly("role-1");
+        assertThat(cache.get("user-1").get()).containsExactly("role-1");
+        assertThat(loader.loads()).isEqualTo(2);
+
+        loader.complete(1, List.of("role-2"));
+        assertThat(cache.get("user-1").get()).containsExactly("role-2");
+        assertThat(loader.loads()).isEqualTo(2);
+        assertThat(misses.getCount()).isEqualTo(1);
+        assertThat(hits.getCount()).isEqualTo(3);
+    }
+
+    @Test
+    void get_refreshAheadFailed_retriedAfterInterval() throws Exception {
+        final RoleCache cache = cache(100, LONG, LONG.minusMillis(EXPIRED_MILLIS), LONG, Duration.ZERO, SHORT);
+        cache.get("user-1");
+        loader.complete(0, List.of("role-1"));
+
+        Thread.sleep(2 * EXPIRED_MILLIS);
+        cache.get("user-1");
+        loader.fail(1);
+
+        // the failed refresh is not retried on every lookup
+        assertThat(cache.get("user-1").get()).containsExactly("role-1");
+        assertThat(loader.loads()).isEqualTo(2);
+
+        Thread.sleep(EXPIRED_MILLIS);
+        assertThat(cache.get("user-1").get()).containsExactly("role-1");
+        assertThat(loader.loads()).isEqualTo(3);
+    }
+
+    @Test
+    void get_full_leastRecentlyUsedEvicted() throws Exception {
+        // 2 stripes with 2 entries each, user-1, user-3 and user-5 are in the same stripe
+        final RoleCache cache = cache(3, LONG, Duration.ZERO, LONG, Duration.ZERO);
+        cache.get("user-1");
+        loader.complete(0, List.of("role-1"));
+        cache.get("user-3");
+        loader.complete(1, List.of("role-3"));
+        cache.get("user-1");
+
+        cache.get("user-5");
+        loader.complete(2, List.of("role-5"));
+
+        assertThat(cache.get("user-1").get()).containsExactly("role-1");
+        assertThat(cache.get("user-5").get()).containsExactly("role-5");
+        assertThat(loader.loads()).isEqualTo(3);
+        assertThat(cache.get("user-3").isDone()).isFalse();
+        assertThat(loader.loads()).isEqualTo(4);
+    }
+
+    @Test
+    void get_negativeTtl() throws Exception {
+        final RoleCache cache = cache(100, LONG, Duration.ZERO, SHORT, Duration.ZERO);
+        cache.get("user-1");
+        loader.complete(0, List.of("role-1"));
+        cache.get("unknown-user");
+        loader.complete(1, List.of());
+
+        assertThat(cache.get("unknown-user").get()).isEmpty();
+        assertThat(loader.loads()).isEqualTo(2);
+
+        Thread.sleep(EXPIRED_MILLIS);
+        assertThat(cache.get("user-1").get()).containsExactly("role-1");
+        assertThat(cache.get("unknown-user").isDone()).isFalse();
+        assertThat(loader.loads()).isEqualTo(3);
+    }
+
+    @Test
+    void get_reloadFailed_staleRolesServed() throws Exception {
+        final RoleCache cache = cache(100, SHORT, Duration.ZERO, LONG, LONG);
+        cache.get("user-1");
+        loader.complete(0, List.of("role-1"));
+
+        Thread.sleep(EXPIRED_MILLIS);
+        final CompletableFuture<List<String>> stale = cache.get("user-1");
+        loader.fail(1);
+
+        assertThat(stale.get()).containsExactly("role-1");
+        assertThat(staleHits.getCount()).isEqualTo(1);
+        assertThat(misses.getCount()).isEqualTo(1);
+
+        // the loader is not called again within the stale retry interval
+        assertThat(cache.get("user-1").get()).containsExactly("role-1");
+        assertThat(loader.loads()).isEqualTo(2);
+        assertThat(staleHits.getCount()).isEqualTo(2);
+    }
+
+    @Test
+    void get_reloadFailed_staleRolesRetried() throws Exception {
+        final RoleCache cache = cache(100, SHORT, Duration.ZERO, LONG, LONG, SHORT);
+        cache.get("user-1");
+        loader.complete(0, List.of("role-1"));
+        Thread.sleep(EXPIRED_MILLIS);
+        cache.get("user-1");
+        loader.fail(1);
+
+        Thread.sleep(EXPIRED_MILLIS);
+        final CompletableFuture<List<String>> retried = cache.get("user-1");
+        loader.complete(2, List.of("role-2"));
+
+        assertThat(retried.get()).containsExactly("role-2");
+        assertThat(cache.get("user-1").get()).containsExactly("role-2");
+        assertThat(loader.loads()).isEqualTo(3);
+        assertThat(misses.getCount()).isEqualTo(2);
+        assertThat(staleHits.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void get_reloadFailed_noMaxStaleness_failed() throws Exception {
+        final RoleCache cache = cache(100, SHORT, Duration.ZERO, LONG, Duration.ZERO);
+        cache.get("user-1");
+        loader.complete(0, List.of("role-1"));
+
+        Thread.sleep(EXPIRED_MILLIS);
+        final CompletableFuture<List<String>> expired = cache.get("user-1");
+        loader.fail(1);
+
+        assertThatThrownBy(expired::get).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(IOException.class);
+        assertThat(staleHits.getCount()).isEqualTo(0);
+    }
+
+    private @NotNull RoleCache cache(
+            final int maxEntries,
+            final @NotNull Duration ttl,
+            final @NotNull Duration refreshAhead,
+            final @NotNull Duration negativeTtl,
+            final @NotNull Duration maxStaleness) {
+        return cache(maxEntries, ttl, refreshAhead, negativeTtl, maxStaleness, LONG);
+    }
+
+    private @NotNull RoleCache cache(
+            final int maxEntries,
+            final @NotNull Duration ttl,
+            final @NotNull Duration refreshAhead,
+            final @NotNull Duration negativeTtl,
+            final @NotNull Duration maxStaleness,
+            final @NotNull Duration staleRetryInterval) {
+        return new RoleCache(maxEntries,
+                ttl,
+                refreshAhead,
+                negativeTtl,
+                maxStaleness,
+                staleRetryInterval,
+                loader,
+                hits,
+                misses,
+                staleHits);
+    }
+
+    /**
+     * Returns a pending future for every load, which the test completes.
+     */
+    private static final class FakeLoader implements Function<String, CompletableFuture<List<String>>> {
+
+        private final @NotNull List<CompletableFuture<List<String>>> loads = new ArrayList<>();
+
+        @Override
+        public synchronized @NotNull CompletableFuture<List<String>> apply(final @NotNull String key) {
+            final CompletableFuture<List<String>> load = new CompletableFuture<>();
+            loads.add(load);
+            return load;
+        }
+
+        synchronized int loads() {
+            return loads.size();
+        }
+
+        void complete(final int load, final @NotNull List<String> roles) {
+            get(load).complete(roles);
+        }
+
+        void fail(final int load) {
+            get(load).completeExceptionally(new IOException("load " + load + " failed"));
+        }
+
+        private synchronized @NotNull CompletableFuture<List<String>> get(final int load) {
+            return loads.get(load);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @since 4.36.0
+ */
+class RoleLookupBatcherTest {
+
+    @Test
+    void missingKey_failed() throws Exception {
+        final RoleLookupBatcher batcher = new RoleLookupBatcher(3,
+                Duration.ofMinutes(1),
+                keys -> CompletableFuture.completedFuture(Map.of("user-1", List.of("role-1"), "user-2", List.of())));
+        try {
+            final CompletableFuture<List<String>> user1 = batcher.get("user-1");
+            final CompletableFuture<List<String>> user2 = batcher.get("user-2");
+            final CompletableFuture<List<String>> user3 = batcher.get("user-3");
+
+            assertThat(user1.get(5, TimeUnit.SECONDS)).containsExactly("role-1");
+            assertThat(user2.get(5, TimeUnit.SECONDS)).isEmpty();
+            // a key that is missing in a truncated response must not be mistaken for a key without roles
+            assertThatThrownBy(() -> user3.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IOException.class);
+        } finally {
+            batcher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.Counter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @since 4.36.0
+ */
+class RoleSnapshotTest {
+
+    @TempDir
+    private @NotNull Path tempDir;
+
+    @Test
+    void writeAndRead() throws Exception {
+        final Path file = tempDir.resolve("snapshot.bin");
+        final long beforeMillis = System.currentTimeMillis();
+        RoleSnapshot.write(file,
+                Map.of("user-1",
+                        List.of("role-1", "role-2"),
+                        "user-2",
+                        List.of("role-2"),
+                        "user-ä",
+                        List.of("role-ö"),
+                        "user-without-roles",
+                        List.of()));
+
+        final RoleSnapshot snapshot = RoleSnapshot.read(file, new RoleNamePool(100));
+
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.size()).isEqualTo(4);
+        assertThat(snapshot.writtenAtMillis()).isGreaterThanOrEqualTo(beforeMillis);
+        assertThat(snapshot.get("user-1")).containsExactly("role-1", "role-2");
+        assertThat(snapshot.get("user-2")).containsExactly("role-2");
+        assertThat(snapshot.get("user-ä")).containsExactly("role-ö");
+        assertThat(snapshot.get("user-without-roles")).isEmpty();
+        assertThat(snapshot.get("user-3")).isNull();
+        assertThat(snapshot.get("user-")).isNull();
+    }
+
+    @Test
+    void read_noFile() throws Exception {
+        assertThat(RoleSnapshot.read(tempDir.resolve("missing.bin"), new RoleNamePool(100))).isNull();
+    }
+
+    @Test
+    void read_truncated() throws Exception {
+        final Path file = write("user-1", "role-1");
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+
+        assertThatThrownBy(() -> RoleSnapshot.read(file, new RoleNamePool(100))).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void read_damagedOffset() throws Exception {
+        final Path file = write("user-1", "role-1");
+        // header (20 bytes), one role name (4 + 6 bytes) and the entry count (4 bytes) precede the offset table
+        damage(file, 20 + 4 + 6 + 4, Integer.MAX_VALUE - 8);
+
+        assertThatThrownBy(() -> RoleSnapshot.read(file, new RoleNamePool(100))).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void read_damagedRoleId() throws Exception {
+        final Path file = write("user-1", "role-1");
+        // the last int of the file is the role id of the only entry
+        damage(file, (int) Files.size(file) - Integer.BYTES, 1);
+
+        assertThatThrownBy(() -> RoleSnapshot.read(file, new RoleNamePool(100))).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void read_damagedEntryCount() throws Exception {
+        final Path file = write("user-1", "role-1");
+        damage(file, 20 + 4 + 6, 1_000_000);
+
+        assertThatThrownBy(() -> RoleSnapshot.read(file, new RoleNamePool(100))).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void cacheSnapshot_expiredEntriesSkipped() throws Exception {
+        final RoleCache roleCache = new RoleCache(100,
+                Duration.ofMillis(100),
+                Duration.ZERO,
+                Duration.ofMillis(100),
+                Duration.ZERO,
+                Duration.ofSeconds(1),
+                key -> CompletableFuture.completedFuture(List.of("role-of-" + key)),
+                new Counter(),
+                new Counter(),
+                new Counter());
+        roleCache.get("expired-user").get();
+        Thread.sleep(200);
+        roleCache.get("user").get();
+
+        final Path file = tempDir.resolve("snapshot.bin");
+        RoleSnapshot.write(file, roleCache.snapshot());
+        final RoleSnapshot snapshot = RoleSnapshot.read(file, new RoleNamePool(100));
+
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.get("user")).containsExactly("role-of-user");
+        assertThat(snapshot.get("expired-user")).isNull();
+    }
+
+    private @NotNull Path write(final @NotNull String key, final @NotNull String role) throws IOException {
+        final Path file = tempDir.resolve("snapshot.bin");
+        RoleSnapshot.write(file, Map.of(key, List.of(role)));
+        return file;
+    }
+
+    private static void damage(final @NotNull Path file, final int position, final int value) throws IOException {
+        final byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(position, value);
+        Files.write(file, bytes);
+    }
+}
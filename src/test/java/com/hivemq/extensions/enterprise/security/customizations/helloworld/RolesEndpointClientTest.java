@@ -0,0 +1,189 @@
+/*
+ * Copyright 2024-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.enterprise.security.customizations.helloworld;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @since 4.36.0
+ */
+class RolesEndpointClientTest {
+
+    private static final @NotNull Duration OPEN_DURATION = Duration.ofMillis(200);
+
+    private final @NotNull List<HttpServer> servers = new ArrayList<>();
+    private final @NotNull ExecutorService serverExecutor = Executors.newCachedThreadPool();
+    private final @NotNull CountDownLatch slowResponses = new CountDownLatch(1);
+    private @Nullable RolesEndpointClient client;
+
+    private volatile int firstEndpointStatus = 500;
+    private volatile boolean firstEndpointSlow;
+
+    @AfterEach
+    void tearDown() {
+        slowResponses.countDown();
+        if (client != null) {
+            client.shutdown();
+        }
+        for (final HttpServer server : servers) {
+            server.stop(0);
+        }
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    void hedgeWinsAgainstHalfOpenEndpoint() throws Exception {
+        final URI first = start(exchange -> {
+            if (firstEndpointSlow) {
+                slowResponses.await();
+            }
+            respond(exchange, firstEndpointStatus, "first-role");
+        });
+        final URI second = start(exchange -> respond(exchange, 200, "second-role"));
+        final RolesEndpointClient client = new RolesEndpointClient(List.of(first, second),
+                Duration.ofSeconds(5),
+                Duration.ofSeconds(10),
+                0,
+                1,
+                OPEN_DURATION,
+                99,
+                Duration.ofSeconds(1),
+                new RoleNamePool(100),
+                1024,
+                new MetricRegistry());
+        this.client = client;
+
+        // the first request opens the circuit breaker of the first endpoint
+        assertThatThrownBy(() -> client.fetchRoles("user").get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(
+                RolesEndpointStatusException.class);
+        assertThat(client.fetchRoles("user").get(5, TimeUnit.SECONDS)).containsExactly("second-role");
+
+        // the trial request to the half-open first endpoint is overtaken by the hedged request and cancelled
+        Thread.sleep(OPEN_DURATION.toMillis() * 2);
+        firstEndpointStatus = 200;
+        firstEndpointSlow = true;
+        assertThat(client.fetchRoles("user").get(5, TimeUnit.SECONDS)).containsExactly("second-role");
+
+        // the cancelled trial request must permit a new trial request to the first endpoint
+        firstEndpointSlow = false;
+        final List<String> roles = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            roles.addAll(client.fetchRoles("user").get(5, TimeUnit.SECONDS));
+        }
+        assertThat(roles).contains("first-role");
+    }
+
+    @Test
+    void leastOutstandingRequests_slowEndpointAvoided() throws Exception {
+        final AtomicInteger slowRequests = new AtomicInteger();
+        final AtomicInteger fastRequests = new AtomicInteger();
+        final URI slow = start(exchange -> {
+            slowRequests.incrementAndGet();
+            slowResponses.await();
+            respond(exchange, 200, "slow-role");
+        });
+        final URI fast = start(exchange -> {
+            fastRequests.incrementAndGet();
+            respond(exchange, 200, "fast-role");
+        });
+        final RolesEndpointClient client = new RolesEndpointClient(List.of(slow, fast),
+                Duration.ofSeconds(5),
+                Duration.ofSeconds(10),
+                0,
+                0,
+                OPEN_DURATION,
+                0,
+                Duration.ofSeconds(1),
+                new RoleNamePool(100),
+                1024,
+                new MetricRegistry());
+        this.client = client;
+
+        // endpoints without outstanding requests are selected in turn, until the slow endpoint has one outstanding
+        final List<CompletableFuture<List<String>>> pending = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final CompletableFuture<List<String>> roles = client.fetchRoles("user-" + i);
+            try {
+                assertThat(roles.get(1, TimeUnit.SECONDS)).containsExactly("fast-role");
+            } catch (final TimeoutException e) {
+                pending.add(roles);
+            }
+        }
+
+        assertThat(slowRequests.get()).isEqualTo(1);
+        assertThat(fastRequests.get()).isEqualTo(19);
+        assertThat(pending).hasSize(1);
+        slowResponses.countDown();
+        assertThat(pending.get(0).get(5, TimeUnit.SECONDS)).containsExactly("slow-role");
+    }
+
+    private @NotNull URI start(final @NotNull Handler handler) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                handler.handle(exchange);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+        servers.add(server);
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    private static void respond(final @NotNull HttpExchange exchange, final int status, final @NotNull String body)
+            throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private interface Handler {
+
+        void handle(@NotNull HttpExchange exchange) throws IOException, InterruptedException;
+    }
+}